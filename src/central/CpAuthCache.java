@@ -0,0 +1,157 @@
+package central;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caché de la fila de EV_CP_REGISTRY (secret + status) que usa AUTH_CP.
+// Tras un reinicio de CENTRAL o un corte de red reconectan miles de monitores a la vez: cada CP va a
+// BD una vez por TTL, y si llegan varios AUTH_CP del mismo CP a la vez comparten la misma consulta
+// (single-flight). NOT_REGISTERED también se guarda (TTL corto) para que un CP desconocido que
+// reintenta en bucle no llegue a la BD. Los errores de BD no se guardan.
+// invalidate() sube la generación del CP: una consulta que empezó antes no guarda su resultado (podría
+// ser la fila anterior al cambio), y los AUTH_CP que lleguen después ya no se suman a ella.
+// Un secret que no coincide con el guardado puede ser un CP que se acaba de volver a registrar: recheck()
+// relee la fila, pero como mucho una vez cada recheckMs por CP y por la misma consulta compartida, para
+// que un monitor con el secret mal que reintenta en bucle no vaya a BD en cada intento.
+final class CpAuthCache {
+
+    // secret == null => no registrado (entrada negativa)
+    static final class Entry {
+        final String secret, status;
+        final long loadedAt, expiresAt;
+        final boolean cached;   // false si viene de la consulta recién hecha por esta llamada
+
+        Entry(String secret, String status, long loadedAt, long expiresAt, boolean cached) {
+            this.secret = secret;
+            this.status = status;
+            this.loadedAt = loadedAt;
+            this.expiresAt = expiresAt;
+            this.cached = cached;
+        }
+
+        boolean registered() { return secret != null; }
+
+        Entry asCached() { return cached ? this : new Entry(secret, status, loadedAt, expiresAt, true); }
+    }
+
+    // Consulta a BD: {secret, status} o null si el CP no existe
+    interface Loader {
+        String[] load(String cpId) throws Exception;
+    }
+
+    private final Loader loader;
+    private final long ttlMs, negativeTtlMs, recheckMs;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+    // Generación por CP (solo los invalidados alguna vez) y la de invalidateAll()
+    private final ConcurrentHashMap<String, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong generationAll = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder(), negativeHits = new LongAdder(), loads = new LongAdder(),
+                            shared = new LongAdder(), errors = new LongAdder(), invalidations = new LongAdder(),
+                            staleLoads = new LongAdder(), rechecks = new LongAdder(), badSecrets = new LongAdder();
+
+    CpAuthCache(Loader loader, long ttlMs, long negativeTtlMs, long recheckMs) {
+        this.loader = loader;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.recheckMs = recheckMs;
+    }
+
+    // Entrada vigente o consulta (una sola por CP aunque lleguen varios AUTH_CP a la vez)
+    Entry get(String cpId) throws Exception {
+        Entry e = entries.get(cpId);
+        if (e != null && e.expiresAt > System.currentTimeMillis()) {
+            (e.registered() ? hits : negativeHits).increment();
+            return e;
+        }
+
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inflight.putIfAbsent(cpId, mine);
+        if (running != null) {
+            shared.increment();
+            try {
+                return running.get();
+            } catch (ExecutionException ee) {
+                throw ee.getCause() instanceof Exception ex ? ex : ee;
+            }
+        }
+
+        long all = generationAll.get();
+        long gen = generations.getOrDefault(cpId, 0L);
+        try {
+            loads.increment();
+            String[] row = loader.load(cpId);
+            long now = System.currentTimeMillis();
+            Entry fresh = row == null ? new Entry(null, null, now, now + negativeTtlMs, false)
+                                      : new Entry(row[0], row[1], now, now + ttlMs, false);
+            if ((fresh.registered() ? ttlMs : negativeTtlMs) > 0) {
+                // Dentro del compute: un invalidate() que sube la generación después de esta comprobación
+                // borra la entrada al terminar (el remove espera al mismo lock)
+                entries.compute(cpId, (k, old) -> {
+                    if (generationAll.get() == all && generations.getOrDefault(k, 0L) == gen) return fresh.asCached();
+                    staleLoads.increment();
+                    return old;
+                });
+            }
+            mine.complete(fresh);
+            return fresh;
+        } catch (Exception ex) {
+            errors.increment();
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(cpId, mine);
+        }
+    }
+
+    // El secret no coincide con la entrada e (de caché). Si se leyó hace menos de recheckMs se devuelve
+    // tal cual; si no, se quita solo esa entrada (si otro ya la cambió se usa la nueva) y se vuelve a
+    // consultar por get(): los AUTH_CP que lleguen a la vez comparten esa consulta. Sin subir la
+    // generación, que eso es para cambios de la fila y tiraría las consultas en curso.
+    Entry recheck(String cpId, Entry e) throws Exception {
+        if (!e.cached || System.currentTimeMillis() - e.loadedAt < recheckMs) return e;
+        rechecks.increment();
+        entries.remove(cpId, e);
+        return get(cpId);
+    }
+
+    // AUTH_CP rechazado por secret (para /api/authcache)
+    void badSecret() { badSecrets.increment(); }
+
+    void invalidate(String cpId) {
+        generations.merge(cpId, 1L, Long::sum);
+        inflight.remove(cpId);   // la consulta en curso sigue, pero los siguientes AUTH_CP lanzan otra
+        if (entries.remove(cpId) != null) invalidations.increment();
+    }
+
+    void invalidateAll() {
+        generationAll.incrementAndGet();
+        inflight.clear();
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    JsonObject stats() {
+        JsonObject o = new JsonObject();
+        o.addProperty("entries", entries.size());
+        o.addProperty("ttlMs", ttlMs);
+        o.addProperty("negativeTtlMs", negativeTtlMs);
+        o.addProperty("recheckMs", recheckMs);
+        o.addProperty("hits", hits.sum());
+        o.addProperty("negativeHits", negativeHits.sum());
+        o.addProperty("loads", loads.sum());
+        o.addProperty("sharedLoads", shared.sum());
+        o.addProperty("errors", errors.sum());
+        o.addProperty("invalidations", invalidations.sum());
+        o.addProperty("staleLoads", staleLoads.sum());
+        o.addProperty("rechecks", rechecks.sum());
+        o.addProperty("badSecrets", badSecrets.sum());
+        return o;
+    }
+}
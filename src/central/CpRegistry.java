@@ -0,0 +1,223 @@
+package central;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Locale;
+
+// Registro de CPs: cada id se interna una vez (en mayúsculas) en un handle entero denso, y todo lo del CP
+// vive en arrays por páginas indexados por handle, sin un objeto por CP: los campos calientes (estado,
+// lastHb, precio, temperatura, ts del clima, sesión activa) en arrays primitivos y la ubicación (fría) en
+// un String[]. Con 100k+ CPs el GC no tiene nada que recorrer por CP y un HB/TEL no genera basura: la
+// búsqueda por id no hace toUpperCase (compara sin mayúsculas/minúsculas sobre el propio String) y los
+// campos se escriben sobre los arrays. El handle es la referencia al CP en todo CENTRAL (rueda de HB,
+// índice de sesiones).
+//
+// Lecturas sin lock; altas (raras) bajo el lock del registro. Los handles no se reutilizan.
+final class CpRegistry {
+
+    private static final int PAGE_SHIFT = 10;            // 1024 CPs por página
+    private static final int PAGE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE - 1;
+
+    private static final VarHandle LONGS   = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle DOUBLES = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle INTS    = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle STRINGS = MethodHandles.arrayElementVarHandle(String[].class);
+
+    // Todo lo que cambia al crecer, publicado de una vez (volatile)
+    private static final class Tables {
+        final String[][] ids, ubicacion;
+        final long[][] st, lastHb, weatherTs;
+        final double[][] price, tempC;
+        final int[][] ses;
+        final int[] index;   // hash abierto: handle + 1 (0 = vacío)
+
+        Tables(int pages, int indexSize) {
+            ids = new String[pages][];
+            ubicacion = new String[pages][];
+            st = new long[pages][];
+            lastHb = new long[pages][];
+            weatherTs = new long[pages][];
+            price = new double[pages][];
+            tempC = new double[pages][];
+            ses = new int[pages][];
+            index = new int[indexSize];
+        }
+    }
+
+    private volatile Tables t = new Tables(1, 1024);
+    private volatile int size;
+
+    int size() { return size; }
+
+    // ---------- búsqueda ----------
+
+    // Handle del CP o -1. Sin asignaciones si el id es ASCII.
+    int handleOf(String id) {
+        if (id == null) return -1;
+        Tables tt = t;
+        int[] index = tt.index;
+        int mask = index.length - 1;
+        int hash = hashIgnoreCase(id);
+        if (hash == 0) return handleOfSlow(id);
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            int v = (int) INTS.getAcquire(index, i);
+            if (v == 0) return -1;
+            int h = v - 1;
+            String s = tt.ids[h >>> PAGE_SHIFT][h & PAGE_MASK];
+            if (s.length() == id.length() && s.regionMatches(true, 0, id, 0, id.length())) return h;
+        }
+    }
+
+    // Handle del CP, dándolo de alta si no existe
+    int intern(String id) {
+        int h = handleOf(id);
+        if (h >= 0) return h;
+        synchronized (this) {
+            h = handleOf(id);
+            if (h >= 0) return h;
+            return add(id.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // Id canónico (mayúsculas); siempre la misma instancia de String
+    String id(int h) { return t.ids[h >>> PAGE_SHIFT][h & PAGE_MASK]; }
+
+    // ---------- campos fríos ----------
+
+    String ubicacion(int h) {
+        return (String) STRINGS.getVolatile(t.ubicacion[h >>> PAGE_SHIFT], h & PAGE_MASK);
+    }
+    void ubicacion(int h, String v)  { STRINGS.setVolatile(t.ubicacion[h >>> PAGE_SHIFT], h & PAGE_MASK, v); }
+
+    // ---------- campos calientes ----------
+
+    // Estado + flags (ocupado, parado, alerta meteo, desconectado) + versión: ver CpState.
+    // Se lee sin lock (una lectura = foto coherente) y se cambia con CAS en getAndUpdate
+    long st(int h)                   { return (long) LONGS.getVolatile(t.st[h >>> PAGE_SHIFT], h & PAGE_MASK); }
+    boolean casSt(int h, long prev, long next) {
+        return LONGS.compareAndSet(t.st[h >>> PAGE_SHIFT], h & PAGE_MASK, prev, next);
+    }
+
+    // Aplica f hasta que el CAS entra; devuelve la palabra anterior. f sin efectos: puede repetirse
+    long getAndUpdate(int h, java.util.function.LongUnaryOperator f) {
+        for (;;) {
+            long prev = st(h);
+            long next = CpState.next(prev, f.applyAsLong(prev));
+            if (next == prev || casSt(h, prev, next)) return prev;
+        }
+    }
+
+    boolean compareAndSet(int h, long prev, long w) {
+        long next = CpState.next(prev, w);
+        return next == prev || casSt(h, prev, next);
+    }
+
+    long lastHb(int h)               { return (long) LONGS.getVolatile(t.lastHb[h >>> PAGE_SHIFT], h & PAGE_MASK); }
+    void lastHb(int h, long v)       { LONGS.setVolatile(t.lastHb[h >>> PAGE_SHIFT], h & PAGE_MASK, v); }
+
+    long weatherTs(int h)            { return (long) LONGS.getVolatile(t.weatherTs[h >>> PAGE_SHIFT], h & PAGE_MASK); }
+    void weatherTs(int h, long v)    { LONGS.setVolatile(t.weatherTs[h >>> PAGE_SHIFT], h & PAGE_MASK, v); }
+
+    double price(int h)              { return (double) DOUBLES.getVolatile(t.price[h >>> PAGE_SHIFT], h & PAGE_MASK); }
+    void price(int h, double v)      { DOUBLES.setVolatile(t.price[h >>> PAGE_SHIFT], h & PAGE_MASK, v); }
+
+    // NaN = sin dato
+    double tempC(int h)              { return (double) DOUBLES.getVolatile(t.tempC[h >>> PAGE_SHIFT], h & PAGE_MASK); }
+    void tempC(int h, double v)      { DOUBLES.setVolatile(t.tempC[h >>> PAGE_SHIFT], h & PAGE_MASK, v); }
+
+    // Sesión activa: hueco en SesionIndex + 1 (0 = ninguna)
+    int ses(int h)                   { return (int) INTS.getVolatile(t.ses[h >>> PAGE_SHIFT], h & PAGE_MASK); }
+    void ses(int h, int v)           { INTS.setVolatile(t.ses[h >>> PAGE_SHIFT], h & PAGE_MASK, v); }
+    boolean casSes(int h, int prev, int next) {
+        return INTS.compareAndSet(t.ses[h >>> PAGE_SHIFT], h & PAGE_MASK, prev, next);
+    }
+
+    // ---------- altas ----------
+
+    // Bajo el lock. La entrada del índice se publica la última (setRelease): quien la vea ve todo lo demás.
+    private int add(String id) {
+        int h = size;
+        Tables tt = t;
+        int page = h >>> PAGE_SHIFT, slot = h & PAGE_MASK;
+
+        // Índice a 3/4 como mucho (sondeo lineal)
+        boolean full = (h + 1) * 4L > tt.index.length * 3L;
+        if (page >= tt.ids.length || full) {
+            tt = grow(tt, Math.max(tt.ids.length, page + 1), full ? tt.index.length * 2 : tt.index.length);
+        }
+        if (tt.ids[page] == null) {
+            tt.ids[page] = new String[PAGE];
+            tt.ubicacion[page] = new String[PAGE];
+            tt.st[page] = new long[PAGE];
+            tt.lastHb[page] = new long[PAGE];
+            tt.weatherTs[page] = new long[PAGE];
+            tt.price[page] = new double[PAGE];
+            tt.tempC[page] = new double[PAGE];
+            tt.ses[page] = new int[PAGE];
+            java.util.Arrays.fill(tt.tempC[page], Double.NaN);
+        }
+        t = tt;
+
+        tt.ids[page][slot] = id;
+        tt.st[page][slot] = CpState.INICIAL;
+        tt.lastHb[page][slot] = System.currentTimeMillis();
+
+        insert(tt.index, id, h);
+        size = h + 1;
+        return h;
+    }
+
+    private Tables grow(Tables old, int pages, int indexSize) {
+        int np = Math.max(pages, old.ids.length * 2);
+        Tables nt = new Tables(np, indexSize);
+        System.arraycopy(old.ids, 0, nt.ids, 0, old.ids.length);
+        System.arraycopy(old.ubicacion, 0, nt.ubicacion, 0, old.ubicacion.length);
+        System.arraycopy(old.st, 0, nt.st, 0, old.st.length);
+        System.arraycopy(old.lastHb, 0, nt.lastHb, 0, old.lastHb.length);
+        System.arraycopy(old.weatherTs, 0, nt.weatherTs, 0, old.weatherTs.length);
+        System.arraycopy(old.price, 0, nt.price, 0, old.price.length);
+        System.arraycopy(old.tempC, 0, nt.tempC, 0, old.tempC.length);
+        System.arraycopy(old.ses, 0, nt.ses, 0, old.ses.length);
+        if (indexSize == old.index.length) {
+            System.arraycopy(old.index, 0, nt.index, 0, old.index.length);
+        } else {
+            for (int h = 0; h < size; h++) insert(nt.index, nt.ids[h >>> PAGE_SHIFT][h & PAGE_MASK], h);
+        }
+        return nt;
+    }
+
+    private static void insert(int[] index, String id, int h) {
+        int mask = index.length - 1;
+        int i = mix(hashIgnoreCase(id)) & mask;
+        while (index[i] != 0) i = (i + 1) & mask;
+        INTS.setRelease(index, i, h + 1);
+    }
+
+    // Hash de las mayúsculas ASCII; 0 si hay algo no ASCII (entonces se usa toUpperCase)
+    private static int hashIgnoreCase(String s) {
+        int h = 1;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) return 0;
+            if (c >= 'a' && c <= 'z') c -= 32;
+            h = 31 * h + c;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private int handleOfSlow(String id) {
+        String up = id.toUpperCase(Locale.ROOT);
+        Tables tt = t;
+        int[] index = tt.index;
+        int mask = index.length - 1;
+        for (int i = mix(hashIgnoreCase(up)) & mask; ; i = (i + 1) & mask) {
+            int v = (int) INTS.getAcquire(index, i);
+            if (v == 0) return -1;
+            int h = v - 1;
+            if (tt.ids[h >>> PAGE_SHIFT][h & PAGE_MASK].equals(up)) return h;
+        }
+    }
+
+    private static int mix(int h) { return h ^ (h >>> 16); }
+}
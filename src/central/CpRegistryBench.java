@@ -0,0 +1,183 @@
+package central;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Banco de pruebas de memoria/GC del registro de CP (no lo usa ningún componente).
+//
+//   java -Xmx3g -cp out:lib/* central.CpRegistryBench [flotas] [hbsPorCp]
+//
+// Para cada tamaño de flota (10k,100k,1M por defecto) compara:
+//   mapa      ConcurrentHashMap<String, CPInfo> como antes (campos volatile, estado String, tempC Double)
+//             y HB con toUpperCase(Locale.ROOT) + get por mensaje
+//   registro  CpRegistry + HbWheel (handles, todo en arrays por páginas, ningún objeto por CP) y HB con
+//             búsqueda sin mayúsculas + rueda + CAS de la palabra de estado, como aplicarHb
+// Mide el heap retenido por la flota (tras GC), y en la fase de HB los ns, bytes asignados por HB y las
+// recolecciones (número y tiempo). Uno de cada 10 mensajes actualiza además la temperatura (WEATHER).
+// Los ids entrantes son Strings nuevos con otras mayúsculas, como los que salen del parser.
+public final class CpRegistryBench {
+
+    // El CPInfo de antes del registro
+    private static final class MapInfo {
+        volatile String cpID, ubicacion;
+        volatile double precio;
+        volatile String estado = "ACTIVADO";
+        volatile long lastHb = System.currentTimeMillis();
+        volatile boolean ocupado = false;
+        volatile boolean parado = false;
+        volatile Double tempC = null;
+        volatile boolean weatherAlert = false;
+        volatile long lastWeatherTs = 0L;
+    }
+
+    private static final com.sun.management.ThreadMXBean MX =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static Object keep;   // que la flota siga viva hasta medir
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        String sizes = args.length > 0 ? args[0] : "10000,100000,1000000";
+        int hbsPorCp = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("[BENCH] Registro de CP: flotas=" + sizes + " HB/CP=" + hbsPorCp +
+                           " heapMax=" + (Runtime.getRuntime().maxMemory() >> 20) + "MB");
+        System.out.println("[BENCH] modo      CPs        heap/flota  bytes/CP   ns/HB  bytes asig./HB   GCs  ms GC");
+        // Una pasada pequeña antes de medir: la carga de clases y los VarHandle (memoria de una vez,
+        // no por CP) no deben contar en la primera flota
+        String[] w = { "CP-W" };
+        mapa(w, w, 1, false);
+        registro(w, w, 1, false);
+        for (String sz : sizes.split(",")) {
+            int n = Integer.parseInt(sz.trim());
+            String[] ids = new String[n], wire = new String[n];
+            for (int i = 0; i < n; i++) {
+                ids[i]  = String.format(Locale.ROOT, "CP-%07d", i);
+                wire[i] = String.format(Locale.ROOT, "cp-%07d", i);
+            }
+            mapa(ids, wire, hbsPorCp, true);
+            registro(ids, wire, hbsPorCp, true);
+        }
+        if (sink == 42) System.out.println();
+    }
+
+    private static void mapa(String[] ids, String[] wire, int hbsPorCp, boolean informe) {
+        int n = ids.length;
+        long base = usedAfterGc();
+        ConcurrentHashMap<String, MapInfo> cps = new ConcurrentHashMap<>();
+        for (String id : ids) {
+            MapInfo info = new MapInfo();
+            info.cpID = id;
+            info.ubicacion = "Simulado";
+            info.precio = 0.30;
+            cps.put(id, info);
+        }
+        keep = cps;
+        long heap = usedAfterGc() - base;
+
+        Runnable hbs = () -> {
+            long now = System.currentTimeMillis();
+            for (int r = 0; r < hbsPorCp; r++) {
+                for (int i = 0; i < n; i++) {
+                    MapInfo info = cps.get(wire[i].toUpperCase(Locale.ROOT));
+                    if (info == null) continue;
+                    info.lastHb = now;
+                    synchronized (info) {
+                        if (!info.parado && !info.weatherAlert) info.estado = "ACTIVADO";
+                    }
+                    if (i % 10 == 0) {
+                        info.tempC = 15.0 + (i + r) % 200 / 10.0;
+                        info.lastWeatherTs = now;
+                    }
+                }
+            }
+            sink += cps.size();
+        };
+        if (informe) medir("mapa", n, heap, (long) n * hbsPorCp, hbs);
+        else hbs.run();
+        keep = null;
+    }
+
+    private static void registro(String[] ids, String[] wire, int hbsPorCp, boolean informe) {
+        int n = ids.length;
+        long base = usedAfterGc();
+        CpRegistry cps = new CpRegistry();
+        HbWheel wheel = new HbWheel(3000, 100, h -> {});
+        long t0 = System.currentTimeMillis();
+        for (String id : ids) {
+            int h = cps.intern(id);
+            cps.ubicacion(h, "Simulado");
+            cps.price(h, 0.30);
+            wheel.touch(h, t0);
+        }
+        keep = new Object[] { cps, wheel };
+        long heap = usedAfterGc() - base;
+
+        Runnable hbs = () -> {
+            long now = System.currentTimeMillis();
+            for (int r = 0; r < hbsPorCp; r++) {
+                for (int i = 0; i < n; i++) {
+                    int h = cps.handleOf(wire[i]);
+                    if (h < 0) continue;
+                    cps.lastHb(h, now);
+                    wheel.touch(h, now);
+                    cps.getAndUpdate(h, w -> {
+                        w = CpState.flag(w, CpState.DESCONECTADO, false);
+                        if (!CpState.has(w, CpState.PARADO) && !CpState.has(w, CpState.WEATHER)) {
+                            return CpState.with(w, CpState.Estado.ACTIVADO);
+                        }
+                        return w;
+                    });
+                    if (i % 10 == 0) {
+                        cps.tempC(h, 15.0 + (i + r) % 200 / 10.0);
+                        cps.weatherTs(h, now);
+                    }
+                }
+            }
+            sink += cps.size();
+        };
+        if (informe) medir("registro", n, heap, (long) n * hbsPorCp, hbs);
+        else hbs.run();
+        keep = null;
+    }
+
+    // Calentamiento (una pasada) y medida
+    private static void medir(String modo, int n, long heap, long total, Runnable hbs) {
+        hbs.run();
+        long tid = Thread.currentThread().threadId();
+        long gc0 = gcCount(), gcMs0 = gcMillis(), a0 = MX.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        hbs.run();
+        long ns = System.nanoTime() - t0;
+        long alloc = MX.getThreadAllocatedBytes(tid) - a0;
+        System.out.printf(Locale.ROOT, "[BENCH] %-9s %,9d  %8.1f MB  %8.0f  %6.1f  %14.1f  %4d  %5d%n",
+                modo, n, heap / 1048576.0, heap / (double) n, ns / (double) total, alloc / (double) total,
+                gcCount() - gc0, gcMillis() - gcMs0);
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        long prev = Long.MAX_VALUE, used = rt.totalMemory() - rt.freeMemory();
+        for (int i = 0; i < 10 && used < prev; i++) {
+            prev = used;
+            System.gc();
+            try { Thread.sleep(50); } catch (InterruptedException ignore) {}
+            used = rt.totalMemory() - rt.freeMemory();
+        }
+        return Math.min(used, prev);
+    }
+
+    private static long gcCount() {
+        long c = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) c += Math.max(0, gc.getCollectionCount());
+        return c;
+    }
+
+    private static long gcMillis() {
+        long t = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) t += Math.max(0, gc.getCollectionTime());
+        return t;
+    }
+}
@@ -0,0 +1,62 @@
+package central;
+
+// Estado de un CP en una sola palabra de 64 bits (CpRegistry.st), para leerlo sin locks y cambiarlo con CAS:
+//
+//   bits  0..7   estado (ordinal de Estado)
+//   bits  8..15  flags (OCUPADO, PARADO, WEATHER, DESCONECTADO)
+//   bits 32..63  versión: +1 en cada cambio (una lectura de la palabra es una foto coherente)
+//
+// Aquí solo hay funciones puras sobre la palabra; el CAS está en CpRegistry.getAndUpdate.
+final class CpState {
+    private CpState() {}
+
+    enum Estado { ACTIVADO, ESPERANDO_PLUG, SUMINISTRANDO, AVERIADO, PARADO, DESCONECTADO }
+
+    private static final Estado[] ESTADOS = Estado.values();
+
+    static final int OCUPADO      = 1 << 8;
+    static final int PARADO       = 1 << 9;
+    static final int WEATHER      = 1 << 10;   // alerta meteorológica (Kafka WEATHER)
+    static final int DESCONECTADO = 1 << 11;   // sin heartbeat / conexión cerrada
+
+    private static final long ESTADO_MASK = 0xFFL;
+    private static final long FLAGS_MASK  = 0xFF00L;
+    private static final long VERSION_ONE = 1L << 32;
+
+    // Recién creado: ACTIVADO pero sin heartbeat todavía
+    static final long INICIAL = Estado.ACTIVADO.ordinal() | DESCONECTADO;
+
+    static Estado estado(long w) { return ESTADOS[(int) (w & ESTADO_MASK)]; }
+
+    static boolean has(long w, int flag) { return (w & flag) != 0; }
+
+    static int version(long w) { return (int) (w >>> 32); }
+
+    static long with(long w, Estado e) { return (w & ~ESTADO_MASK) | e.ordinal(); }
+
+    static long flag(long w, int flag, boolean on) { return on ? w | flag : w & ~(long) flag; }
+
+    // Misma palabra con la versión siguiente (solo si algo cambió)
+    static long next(long prev, long w) {
+        if ((w & (ESTADO_MASK | FLAGS_MASK)) == (prev & (ESTADO_MASK | FLAGS_MASK))) return prev;
+        return (w & (ESTADO_MASK | FLAGS_MASK)) | ((prev & ~(ESTADO_MASK | FLAGS_MASK)) + VERSION_ONE);
+    }
+
+    // Lo que se enseña en panel / HTML / API
+    static Estado visible(long w) {
+        if (has(w, DESCONECTADO)) return Estado.DESCONECTADO;
+        if (estado(w) == Estado.AVERIADO) return Estado.AVERIADO;
+        if (has(w, PARADO)) return Estado.PARADO;
+        if (has(w, OCUPADO)) return Estado.SUMINISTRANDO;
+        return Estado.ACTIVADO;
+    }
+
+    // Motivo por el que no se puede abrir sesión (mismo orden de comprobaciones que REQ_START), o null
+    static String motivoRechazo(long w) {
+        if (has(w, WEATHER)) return "WEATHER_ALERT";
+        if (estado(w) != Estado.ACTIVADO) return estado(w).name();
+        if (has(w, PARADO)) return "PARADO";
+        if (has(w, OCUPADO)) return "OCUPADO";
+        return null;
+    }
+}
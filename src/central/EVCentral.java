@@ -11,9 +11,13 @@ import java.nio.file.Path;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 import com.google.gson.JsonObject;
 import static common.net.Wire.*;
+import common.net.WireConn;
+import common.net.WireMsg;
+import common.net.MsgCodec;
 
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
@@ -22,6 +26,9 @@ import java.nio.charset.StandardCharsets;
 import common.bus.EventBus;
 import common.bus.NoBus;
 import common.bus.KafkaBus;
+import common.bus.SubscribeOptions;
+import common.bus.RecordFilter;
+import common.bus.BusHeaders;
 
 /*import java.security.SecureRandom;
 import java.sql.DriverManager;
@@ -41,22 +48,10 @@ import java.nio.file.StandardOpenOption;
 
 
 public class EVCentral {
-    static class CPInfo {
-        volatile String cpID, ubicacion;
-        volatile double precio;
-        volatile String estado = "ACTIVADO";
-        volatile long lastHb = System.currentTimeMillis();
-        volatile boolean ocupado = false;
-        volatile boolean parado = false;
-
-        //NUEVO: info de clima
-        volatile Double tempC = null;
-        volatile boolean weatherAlert = false;
-        volatile long lastWeatherTs = 0L;
-    }
     static class SesionInfo {
         final String sesionID, cpID, driverID;
         final long startUTC;
+        volatile int hueco = -1;   // en SesionIndex (handle de la sesión); -1 = cerrada
         volatile double kWhAccumulado = 0.0, eurAccumulado = 0.0;
         SesionInfo(String s, String cp, String drv){
             sesionID = s;
@@ -65,6 +60,35 @@ public class EVCentral {
             startUTC = System.currentTimeMillis();
         }
     }
+    // Conexión TCP de un monitor (o de un concentrador con varios CP) y los CP de los que es dueña: solo
+    // se aceptan HB/HB_BATCH/REG_CP de esos. Un AUTH_CP del mismo CP por otra conexión se lo lleva.
+    static final class ConexionCp {
+        final WireConn conn;
+        private final java.util.Set<String> cps = ConcurrentHashMap.newKeySet();
+        private boolean cerrada;   // sin CP tras perder el último: no admite más
+
+        ConexionCp(WireConn conn) { this.conn = conn; }
+
+        synchronized boolean add(String cpID) {
+            if (cerrada) return false;
+            cps.add(cpID);
+            return true;
+        }
+
+        // Quita el CP; true si la conexión se ha quedado sin ninguno
+        synchronized boolean quitar(String cpID) {
+            cps.remove(cpID);
+            if (cps.isEmpty()) cerrada = true;
+            return cerrada;
+        }
+
+        boolean tiene(String cpID) { return cps.contains(cpID); }
+
+        int size() { return cps.size(); }
+
+        String[] cps() { return cps.toArray(new String[0]); }
+    }
+
     static class AuthResult {
         final boolean ok;
         final String key;
@@ -87,9 +111,11 @@ public class EVCentral {
     static String DB_URL, DB_USER, DB_PASS;
 
     //Mapas y colecciones
-    private final static Map<String, CPInfo> cps = new ConcurrentHashMap<>();
-    private final Map<String, SesionInfo> sesiones = new ConcurrentHashMap<>();
-    private final Map<String, String> cpSesionesActivas = new ConcurrentHashMap<>();
+    private final static CpRegistry cps = new CpRegistry();
+    // Sesiones abiertas + índices CP -> sesión (en el registro) y driver -> sesiones
+    private final SesionIndex sesiones = new SesionIndex(cps);
+    // Conexión viva de cada CP autenticado (la última gana; la anterior pierde ese CP)
+    private final Map<String, ConexionCp> conexionesCp = new ConcurrentHashMap<>();
     private final java.util.Set<String> stopSolicitado = java.util.concurrent.ConcurrentHashMap.newKeySet(); //Para ver si el END viene de un STOP manual
     private final static java.util.Set<String> driversValidos = java.util.concurrent.ConcurrentHashMap.newKeySet();
     private final java.util.concurrent.ConcurrentMap<String,String> cpKeys = new java.util.concurrent.ConcurrentHashMap<>();
@@ -97,7 +123,24 @@ public class EVCentral {
 
     //Kafka
     private EventBus bus = new NoBus();
-    private String T_TELEMETRY, T_SESSIONS, T_CMD;
+    private String T_TELEMETRY, T_SESSIONS, T_CMD, T_REQUESTS, T_REPLIES;
+    private boolean repliesPorDriver = true;
+    // Escritura por lotes hacia los CP (0 = cada mensaje sale en su propia escritura)
+    private int  wireBatchBytes = 0;
+    private long wireBatchMs    = 2;
+    // Admisión en el listener de CP (ver main)
+    private TokenBucket acceptBucket = new TokenBucket(500, 1000, 60_000);
+    private Semaphore authSlots = new Semaphore(256);
+    private int authTimeoutMs = 5000;
+    private long retryAfterMs = 1000;
+    private final java.util.concurrent.atomic.LongAdder rechazosRate = new java.util.concurrent.atomic.LongAdder(),
+                                                       rechazosBusy = new java.util.concurrent.atomic.LongAdder(),
+                                                       authTimeouts = new java.util.concurrent.atomic.LongAdder();
+    // Vencimientos de heartbeat (main la recrea con central.hbTimeoutMs / central.hbTickMs)
+    private HbWheel hbWheel = new HbWheel(3000, 100, this::expirarHb);
+    private long hbTickMs = 100;
+    // secret/status de EV_CP_REGISTRY para AUTH_CP (main la recrea con central.auth.*)
+    private CpAuthCache authCache = new CpAuthCache(EVCentral::leerCpRegistry, 300_000, 30_000, 5_000);
 
     //Auditoría
     private static Path auditPath;
@@ -156,15 +199,40 @@ public class EVCentral {
         central.T_TELEMETRY = config.getProperty("kafka.topic.telemetry","ev.telemetry.v1");
         central.T_SESSIONS  = config.getProperty("kafka.topic.sessions","ev.sessions.v1");
         central.T_CMD       = config.getProperty("kafka.topic.cmd","ev.cmd.v1");
+        central.T_REQUESTS  = config.getProperty("kafka.topic.requests","ev.requests.v1");
+        central.T_REPLIES   = config.getProperty("kafka.topic.replies","ev.driver.replies.v1");
+        central.repliesPorDriver = Boolean.parseBoolean(config.getProperty("kafka.replies.perDriverTopic","true").trim());
+        int hbTimeoutMs  = parseIntOr(config.getProperty("central.hbTimeoutMs"), 3000);
+        central.hbTickMs = Math.max(10, parseIntOr(config.getProperty("central.hbTickMs"), 100));
+        central.hbWheel  = new HbWheel(hbTimeoutMs, central.hbTickMs, central::expirarHb);
+        central.authCache = new CpAuthCache(EVCentral::leerCpRegistry,
+                parseIntOr(config.getProperty("central.auth.ttlMs"), 300_000),
+                parseIntOr(config.getProperty("central.auth.negativeTtlMs"), 30_000),
+                parseIntOr(config.getProperty("central.auth.recheckMs"), 5_000));
+        central.wireBatchBytes = parseIntOr(config.getProperty("central.wire.batchBytes"), 0);
+        central.wireBatchMs    = parseIntOr(config.getProperty("central.wire.batchMs"), 2);
         central.bus = KafkaBus.from(config);
         System.out.println("[CENTRAL][KAFKA] bootstrap=" + config.getProperty("kafka.bootstrap","(missing)") + " busImpl=" + central.bus.getClass().getSimpleName());
 
-        // Suscripción a comandos (PAUSE/RESUME/STOP) vía Kafka ev.cmd.v1
-        central.bus.subscribe(central.T_CMD, central::onKafkaCmd);
+        // Handlers en paralelo por clave (CP / sesión): un onKafkaCmd lento (BD, AES) no frena al resto
+        int busWorkers = parseIntOr(config.getProperty("central.bus.workers"), Runtime.getRuntime().availableProcessors());
+        int busQueue   = parseIntOr(config.getProperty("central.bus.queueCapacity"), SubscribeOptions.DEFAULT_QUEUE);
+        SubscribeOptions busOpts = busWorkers > 0 ? SubscribeOptions.parallel(busWorkers).withQueue(busQueue) : SubscribeOptions.INLINE;
+        // Telemetría en el carril BULK (consumer y cola propios). Con la cola llena se tiran los TEL
+        // (cada uno trae los acumulados de la sesión); los WEATHER nunca, pueden disparar un STOP_SUPPLY
+        int bulkQueue  = parseIntOr(config.getProperty("central.bus.bulkQueueCapacity"), Math.max(1, busQueue / 5));
+        SubscribeOptions telOpts = busOpts.withQueue(busWorkers > 0 ? bulkQueue : 0)
+                .bulk(RecordFilter.notHeader(BusHeaders.TYPE, "WEATHER"));
+
+        // Peticiones de drivers/paneles (REQ_START/REQ_STOP/PAUSE/RESUME) vía Kafka ev.requests.v1.
+        // T_CMD (CENTRAL -> CP) ya no se consume aquí: solo lo leen los ENGINE.
+        // Anti-eco por cabecera por si alguien publica con src=CENTRAL en el canal de peticiones
+        central.bus.subscribe(central.T_REQUESTS, central::onKafkaCmd,
+                busOpts.filtered(RecordFilter.notHeader(BusHeaders.SRC, "CENTRAL")));
         // Suscripción a eventos llegan por Kafka desde ENGINE ev.telemetry.v1
-        central.bus.subscribe(central.T_TELEMETRY, central::onKafkaTelemetry);
+        central.bus.subscribe(central.T_TELEMETRY, central::onKafkaTelemetry, telOpts);
         // Suscripción a sesiones recibidas por Kafka (ev.sessions.v1)
-        central.bus.subscribe(central.T_SESSIONS, central::onKafkaSessions);
+        central.bus.subscribe(central.T_SESSIONS, central::onKafkaSessions, busOpts);
 
         // Cierre limpio al terminar la JVM
         Runtime.getRuntime().addShutdownHook(new Thread(() -> { try { central.bus.close(); } catch(Exception ignore){} }, "shutdown-central"));
@@ -178,13 +246,52 @@ public class EVCentral {
         central.iniciarHttpStatus(httpPort);
         
 
-        try (ServerSocket server = new ServerSocket(port)) {
+        // Un hilo por CP (el protocolo AUTH_CP -> REG_CP -> HB sigue siendo bloqueante), pero virtual
+        // por defecto: miles de monitores no son miles de hilos del SO. El semáforo acota las conexiones
+        // vivas (y con ellas la memoria: un rbuf de 4 KB por conexión); al llegar al tope se deja de
+        // aceptar y los nuevos esperan en el backlog del listener.
+        boolean virtual = !"platform".equalsIgnoreCase(config.getProperty("central.server", "virtual").trim());
+        int maxConns    = parseIntOr(config.getProperty("central.maxConnections"), 50_000);
+        int backlog     = parseIntOr(config.getProperty("central.acceptBacklog"), 1024);
+        Semaphore connSlots = new Semaphore(Math.max(1, maxConns));
+        // Admisión: ritmo de accept() (cubo de tokens) y tope de conexiones aún sin AUTH_CP. Lo que no
+        // entra recibe RETRY con retryAfterMs repartidos en el tiempo; el monitor añade jitter.
+        central.acceptBucket   = new TokenBucket(parseIntOr(config.getProperty("central.accept.ratePerSec"), 500),
+                                                 parseIntOr(config.getProperty("central.accept.burst"), 1000),
+                                                 parseIntOr(config.getProperty("central.retryAfterMaxMs"), 60_000));
+        central.authSlots      = new Semaphore(Math.max(1, parseIntOr(config.getProperty("central.auth.maxPending"), 256)));
+        central.authTimeoutMs  = parseIntOr(config.getProperty("central.auth.timeoutMs"), 5000);
+        central.retryAfterMs   = parseIntOr(config.getProperty("central.retryAfterMs"), 1000);
+        Thread.Builder cpThreads = virtual ? Thread.ofVirtual().name("cp-", 0)
+                                           : Thread.ofPlatform().name("cp-", 0);
+
+        try (ServerSocket server = new ServerSocket(port, backlog)) {
             System.out.println("[CENTRAL] Config: " + ruta); //debug
-            System.out.println("[CENTRAL] Escuchando en puerto " + port);
+            System.out.println("[CENTRAL] Escuchando en puerto " + port + " server=" + (virtual ? "virtual" : "platform") +
+                               " maxConnections=" + maxConns);
 
             while (true) {
-                Socket s = server.accept();
-                new Thread(() -> central.atender(s)).start();
+                if (!connSlots.tryAcquire()) {
+                    System.out.println("[CENTRAL] " + maxConns + " conexiones CP abiertas: esperando a que se libere una");
+                    connSlots.acquireUninterruptibly();
+                }
+                Socket s;
+                try {
+                    s = server.accept();
+                } catch (IOException e) {
+                    connSlots.release();
+                    System.err.println("[CENTRAL] accept: " + e.getMessage());
+                    continue;
+                }
+                boolean admitida = central.acceptBucket.tryAcquire();
+                cpThreads.start(() -> {
+                    try {
+                        if (admitida) central.atender(s);
+                        else central.rechazar(s, "RATE");
+                    } finally {
+                        connSlots.release();
+                    }
+                });
             }
         } catch (BindException e) {
             System.err.println("[CENTRAL] Puerto " + port + " en uso. Cambia 'central.listenPort' en " + ruta);
@@ -228,26 +335,13 @@ public class EVCentral {
         }
     }
 
+    // Cada tic solo mira los CP cuyo heartbeat vence en ese tic (HbWheel), no todo el mapa
     private void iniciarWatchdog () {
         Thread w = new Thread(() -> {
             while (true) {
-                long now = System.currentTimeMillis();
                 try {
-                    for (Map.Entry<String, CPInfo> e : cps.entrySet()) {
-                        CPInfo info = e.getValue();
-                        long lag = now - info.lastHb;
-
-                        // 3s sin latidos -> marcamos el CP como desconectado,
-                        // pero NO cortamos la sesión en el CP ni enviamos STOP_SUPPLY.
-                        if (lag > 3000) {
-                            synchronized (info) {
-                                if (!"DESCONECTADO".equals(info.estado)) {
-                                    info.estado = "DESCONECTADO";
-                                }
-                            }
-                        }
-                    }
-                    Thread.sleep(1000);
+                    hbWheel.advance(System.currentTimeMillis());
+                    Thread.sleep(hbTickMs);
                 } catch (InterruptedException ie) {
                     return;
                 } catch (Exception ignore) {}
@@ -267,23 +361,23 @@ public class EVCentral {
                     System.out.println("----------+-----------------+--------+---------+------------+--------+------------+---------+---------");
 
                     long now = System.currentTimeMillis();
-                    for (Map.Entry<String, CPInfo> e : cps.entrySet()) {
-                        String cpID = e.getKey();
-                        CPInfo info = e.getValue();
+                    for (int h = 0, n = cps.size(); h < n; h++) {
+                        String cpID = cps.id(h);
 
-                        String ses = cpSesionesActivas.getOrDefault(cpID, "-");
-                        String est = estadoVisible(info);
-                        long lag = now - info.lastHb;
+                        var sInf = sesiones.deCp(h);
+                        String ses = sInf != null ? sInf.sesionID : "-";
+                        long st = cps.st(h);
+                        String est = CpState.visible(st).name();
+                        long lag = now - cps.lastHb(h);
 
                         double kwh = 0.0, eur = 0.0;
-                        var sInf = (ses.equals("-") ? null : sesiones.get(ses));
                         if (sInf != null) { 
                             kwh = sInf.kWhAccumulado; eur = sInf.eurAccumulado; 
                         }
 
                         System.out.printf("%-9s | %-15s | %-6s | %-7s | %10d | %6.2f | %-10s | %7.4f | %7.4f%n",
-                            cpID, est, info.parado ? "SI" : "NO", info.ocupado ? "SI" : "NO",
-                            lag, info.precio, ses, kwh, eur);
+                            cpID, est, CpState.has(st, CpState.PARADO) ? "SI" : "NO", CpState.has(st, CpState.OCUPADO) ? "SI" : "NO",
+                            lag, cps.price(h), ses, kwh, eur);
                     }
 
                     Thread.sleep(1000);
@@ -306,6 +400,9 @@ public class EVCentral {
             http.createContext("/api/sessions", this::handleApiSessions);  // NUEVO
             http.createContext("/api/drivers",  this::handleApiDrivers);   // NUEVO
             http.createContext("/api/weather",  this::handleApiWeather);   // NUEVO (para EV_W)
+            http.createContext("/api/bus",      this::handleApiBus);       // métricas del bus (colas, pausas)
+            http.createContext("/api/wire",     this::handleApiWire);      // escrituras a sockets CP (syscalls/s, bytes por escritura)
+            http.createContext("/api/auth",     this::handleApiAuth);      // caché de AUTH_CP: GET stats | POST /api/auth/invalidate[?cp=]
 
             // Panel HTML y comandos ya existentes
             http.createContext("/",  this::handleStatusHtml);
@@ -329,22 +426,51 @@ public class EVCentral {
         String remoteIp = s.getInetAddress().getHostAddress();
         System.out.println("[CENTRAL] Conexión " + cliente);
 
-        try (DataInputStream in  = new DataInputStream(s.getInputStream());
-            DataOutputStream out = new DataOutputStream(s.getOutputStream())) {
+        // Un concentrador puede autenticar varios CP por la misma conexión (un AUTH_CP por CP);
+        // solo esos pueden aparecer en sus HB/HB_BATCH. Al salir, los que sigan siendo suyos pasan a DESCONECTADO.
+        ConexionCp propia = null;
+        // Hueco de authSlots ocupado hasta el primer AUTH_CP correcto
+        boolean esperandoAuth = false;
+        // Plazo absoluto para ese primer AUTH_CP: PENDIENTE -> AUTENTICADO | VENCIDO (lo que llegue antes)
+        java.util.concurrent.atomic.AtomicInteger fase = new java.util.concurrent.atomic.AtomicInteger(PENDIENTE);
+        java.util.concurrent.ScheduledFuture<?> plazo = null;
+
+        // WireConn: buffers reutilizables, el HB no crea String ni byte[] por frame.
+        // AUTO: cada monitor elige framing (longitud o STX/ETX/LRC) y se detecta con su primer byte
+        try (WireConn conn = new WireConn(s, WireConn.Framing.AUTO)) {
+            propia = new ConexionCp(conn);
+            if (!authSlots.tryAcquire()) {
+                // Demasiadas conexiones a medio autenticar (cada una puede acabar en BD): que vuelva luego
+                responderRetry(conn, "BUSY");
+                return;
+            }
+            esperandoAuth = true;
+            // El AUTH_CP tiene que llegar en este tiempo. SO_TIMEOUT solo limita cada lectura (un cliente
+            // que manda el frame a trozos lo renovaría sin fin): al vencer el plazo se cierra el socket
+            plazo = Plazos.EXEC.schedule(() -> {
+                if (fase.compareAndSet(PENDIENTE, VENCIDO)) {
+                    try { s.close(); } catch (IOException ignore) {}
+                }
+            }, authTimeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+            s.setSoTimeout(authTimeoutMs);
+            if (wireBatchBytes > 0) conn.batching(wireBatchBytes, wireBatchMs);
 
             boolean authenticated   = false;
             String  cpIdAutenticado = null;
+            // HB/REG_CP llegan ya troceados en campos (MsgCodec); el resto trae wm.json
+            WireMsg wm = new WireMsg();
 
             while (true) {
-                JsonObject msg = recv(in);
-                String type = msg.has("type") ? msg.get("type").getAsString() : null;
+                conn.recv(wm);
+                String type = wm.type;
                 if (type == null) continue;
 
-                // --------- FASE DE AUTENTICACIÓN ---------
-                if (!authenticated) {
+                // --------- FASE DE AUTENTICACIÓN (y AUTH_CP adicionales) ---------
+                if (!authenticated || "AUTH_CP".equals(type)) {
+                    JsonObject msg = wm.toJson();
                     if (!"AUTH_CP".equals(type)) {
                         // Cualquier cosa antes de AUTH_CP => error
-                        send(out, obj("type","AUTH_ERR",
+                        conn.send(obj("type","AUTH_ERR",
                                     "ts",System.currentTimeMillis(),
                                     "cp","?",
                                     "reason","MISSING_AUTH"));
@@ -371,34 +497,51 @@ public class EVCentral {
 
                     if (cpID == null || secret == null || secret.isBlank()) {
                         // No tiramos NPE: devolvemos AUTH_ERR y cerramos
-                        send(out, obj("type","AUTH_ERR",
+                        conn.send(obj("type","AUTH_ERR",
                                     "ts",System.currentTimeMillis(),
                                     "cp", cpID != null ? cpID : "?",
                                     "reason","MALFORMED_AUTH_CP"));
                         System.out.println("[CENTRAL] AUTH_CP sin cp/secret válido desde " +
                                 cliente + ": " + msg);
-                        break;
+                        if (!authenticated) break;
+                        continue;   // los CP ya autenticados en esta conexión siguen
                     }
 
                     // Autenticación contra BD / EV_CP_REGISTRY
                     AuthResult ar = autenticarCpEnBd(cpID, secret, remoteIp);
 
                     if (ar.ok) {
-                        send(out, obj("type","AUTH_OK",
+                        // Si el plazo ya ha vencido (p. ej. mientras se consultaba la BD) el socket está cerrado:
+                        // fuera sin registrar el CP, contado como los demás vencimientos
+                        if (!authenticated && !fase.compareAndSet(PENDIENTE, AUTENTICADO)) {
+                            throw new java.net.SocketTimeoutException("plazo de AUTH_CP vencido");
+                        }
+                        conn.sendNow(obj("type","AUTH_OK",
                                     "ts",System.currentTimeMillis(),
                                     "cp",cpID,
                                     "key",ar.key));
-                        authenticated   = true;
-                        cpIdAutenticado = cpID;
-                        System.out.println("[CENTRAL] CP autenticado: " + cpID);
+                        if (!authenticated) {
+                            cpIdAutenticado = cpID;
+                            authSlots.release();
+                            esperandoAuth = false;
+                            plazo.cancel(false);
+                            s.setSoTimeout(0);
+                        }
+                        authenticated = true;
+                        // Otra conexión le ha quitado ya todos sus CP y se está cerrando
+                        if (!propia.add(cpID)) break;
+                        registrarConexion(cpID, propia, cliente);
+                        System.out.println("[CENTRAL] CP autenticado: " + cpID + " framing=" + conn.framing() +
+                                           (propia.size() > 1 ? " (" + propia.size() + " CP en " + cliente + ")" : ""));
                     } else {
-                        send(out, obj("type","AUTH_ERR",
+                        conn.send(obj("type","AUTH_ERR",
                                     "ts",System.currentTimeMillis(),
                                     "cp",cpID,
                                     "reason",ar.reason));
                         System.out.println("[CENTRAL] AUTH_CP rechazada para " + cpID +
                                         " reason=" + ar.reason);
-                        break;
+                        if (!authenticated) break;
+                        continue;
                     }
                     continue; // siguiente frame una vez autenticado
                 }
@@ -407,60 +550,131 @@ public class EVCentral {
 
                 switch (type) {
                     case "REG_CP" -> {
-                        String cpID = msg.get("cp").getAsString();
-                        if (cpID != null) cpID = cpID.toUpperCase(java.util.Locale.ROOT);
-
-                        CPInfo info = cps.computeIfAbsent(cpID, _ -> new CPInfo());
-                        synchronized (info) {
-                            info.cpID      = cpID;
-                            info.ubicacion = msg.get("loc").getAsString();
-                            info.precio    = msg.get("price").getAsDouble();
-                            info.estado    = "ACTIVADO";
-                            info.lastHb    = System.currentTimeMillis();
+                        if (wm.cp == null || !propia.tiene(wm.cp.toUpperCase(java.util.Locale.ROOT))) {
+                            System.out.println("[CENTRAL] REG_CP de " + wm.cp + " descartado: no es de la conexión " + cliente);
+                            continue;
                         }
-                        try { dbUpsertCP(cpID, info.ubicacion, info.precio); } catch (Exception ignore) {}
+                        int h = cps.intern(wm.cp);
+                        String cpID = cps.id(h);
+                        long now = System.currentTimeMillis();
+                        cps.ubicacion(h, wm.loc);
+                        cps.price(h, wm.price);
+                        cps.lastHb(h, now);
+                        hbWheel.touch(h, now);
+                        cps.getAndUpdate(h, w -> CpState.with(CpState.flag(w, CpState.DESCONECTADO, false),
+                                                              CpState.Estado.ACTIVADO));
+                        try { dbUpsertCP(cpID, wm.loc, wm.price); } catch (Exception ignore) {}
                     }
 
                     case "HB" -> {
-                        String cpID = msg.get("cp").getAsString().toUpperCase(java.util.Locale.ROOT);
-                        boolean ok  = msg.get("ok").getAsBoolean();
-                        CPInfo info = cps.get(cpID);
-                        if (info == null) break;
-
-                        info.lastHb = System.currentTimeMillis();
-                        synchronized (info) {
-                            if (!ok) {
-                                info.estado = "AVERIADO";
-                            } else if (!info.parado && !info.weatherAlert) {
-                                info.estado = "ACTIVADO";
-                            }
-                        }
+                        // Un CP que ha reconectado por otra conexión ya no es de esta: sus HB de aquí no cuentan
+                        int h = cps.handleOf(wm.cp);   // sin toUpperCase: el registro compara sin mayúsculas/minúsculas
+                        if (h >= 0 && propia.tiene(cps.id(h))) aplicarHb(h, wm.ok, System.currentTimeMillis());
                     }
 
+                    case "HB_BATCH" -> aplicarHbBatch(wm.json, propia, cliente);
+
                     default -> System.out.println("[CENTRAL] Tipo JSON desconocido: " + type);
                 }
             }
         } catch (Exception e) {
-            System.out.println("[CENTRAL] Conexión cerrada (" + cliente + "): " + e.getMessage());
+            // Solo hay timeout (de lectura o del plazo, que cierra el socket) antes de autenticar
+            if (e instanceof java.net.SocketTimeoutException || fase.get() == VENCIDO) {
+                authTimeouts.increment();
+                System.out.println("[CENTRAL] Sin AUTH_CP en " + authTimeoutMs + " ms. Cerrando conexión " + cliente);
+            } else {
+                System.out.println("[CENTRAL] Conexión cerrada (" + cliente + "): " + e.getMessage());
+            }
+        } finally {
+            if (plazo != null) plazo.cancel(false);
+            if (esperandoAuth) authSlots.release();
+            if (propia != null) for (String cpID : propia.cps()) soltarConexion(cpID, propia);
         }
     }
 
-    private String estadoVisible (CPInfo info) {
-        long ms = System.currentTimeMillis() - info.lastHb;
-        boolean desconectado = ms > 3000;
-        if (desconectado) {
-            return "DESCONECTADO";
+    private static final int PENDIENTE = 0, AUTENTICADO = 1, VENCIDO = 2;
+
+    // Un hilo para los plazos de la fase de AUTH_CP de todas las conexiones (solo cierra sockets, nunca
+    // se bloquea). Las tareas canceladas se quitan de la cola en el acto: con miles de conexiones por
+    // segundo no se acumulan hasta su vencimiento.
+    private static final class Plazos {
+        static final java.util.concurrent.ScheduledThreadPoolExecutor EXEC = crear();
+
+        private static java.util.concurrent.ScheduledThreadPoolExecutor crear() {
+            java.util.concurrent.ScheduledThreadPoolExecutor e = new java.util.concurrent.ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "auth-deadline");
+                t.setDaemon(true);
+                return t;
+            });
+            e.setRemoveOnCancelPolicy(true);
+            return e;
         }
-        if ("AVERIADO".equals(info.estado)) {
-            return "AVERIADO";
+    }
+
+    // Conexión no admitida por ritmo de accept(): RETRY y fuera, sin tocar BD
+    private void rechazar(Socket s, String reason) {
+        try (WireConn conn = new WireConn(s, WireConn.Framing.AUTO)) {
+            responderRetry(conn, reason);
+        } catch (Exception ignore) {
+            try { s.close(); } catch (Exception ignore2) {}
         }
-        if (info.parado) {
-            return "PARADO";
+    }
+
+    // Lee el primer frame (el AUTH_CP; así sabemos el framing del monitor) y responde RETRY con el
+    // siguiente hueco libre del cubo de tokens. Si no ha llegado entero en 1 s respondemos igual: el
+    // plazo cierra la entrada (el recv() en curso ve fin de stream) aunque el cliente siga goteando bytes.
+    private void responderRetry(WireConn conn, String reason) {
+        ("RATE".equals(reason) ? rechazosRate : rechazosBusy).increment();
+        long after = Math.max(retryAfterMs, acceptBucket.reserve());
+        Socket s = conn.socket();
+        java.util.concurrent.ScheduledFuture<?> plazo = Plazos.EXEC.schedule(() -> {
+            try { s.shutdownInput(); } catch (IOException ignore) {}
+        }, 1000, java.util.concurrent.TimeUnit.MILLISECONDS);
+        try {
+            s.setSoTimeout(1000);
+            conn.recv();
+        } catch (Exception ignore) {
+        } finally {
+            plazo.cancel(false);
         }
-        if (info.ocupado) {
-            return "SUMINISTRANDO";
+        try {
+            conn.sendNow(obj("type","RETRY",
+                        "ts",System.currentTimeMillis(),
+                        "reason",reason,
+                        "retryAfterMs",after));
+        } catch (Exception ignore) {}
+        // Sin log por conexión: en una avalancha serían miles de líneas (contadores en /api/wire)
+    }
+
+    // Conexión duplicada del mismo CP: gana la más reciente (el monitor que reconecta tras un corte
+    // que aquí aún no se ha notado). A la anterior solo se le quita ese CP (en un concentrador los demás
+    // siguen por ella) y su atender() ya no lo marcará al salir. Si se queda sin CP se cierra el socket
+    // directamente: nada de WireConn.close(), que con batching vaciaría lo pendiente con una escritura
+    // bloqueante en el hilo de esta conexión nueva.
+    private void registrarConexion(String cpID, ConexionCp nueva, String cliente) {
+        ConexionCp prev = conexionesCp.put(cpID, nueva);
+        if (prev == null || prev == nueva) return;
+        if (prev.quitar(cpID)) {
+            System.out.println("[CENTRAL] CP " + cpID + " reconectado desde " + cliente + ": se cierra la conexión anterior");
+            try { prev.conn.socket().close(); } catch (IOException ignore) {}
+        } else {
+            System.out.println("[CENTRAL] CP " + cpID + " reconectado desde " + cliente + ": la conexión anterior sigue con " +
+                               prev.size() + " CP");
         }
-        return "ACTIVADO";
+    }
+
+    // Fin de atender(): si esta seguía siendo la conexión del CP, DESCONECTADO ya, sin esperar al
+    // timeout de heartbeat. Dentro del compute: un AUTH_CP nuevo del mismo CP espera a que termine.
+    private void soltarConexion(String cpID, ConexionCp propia) {
+        conexionesCp.computeIfPresent(cpID, (_, c) -> {
+            if (c != propia) return c;
+            int h = cps.handleOf(cpID);
+            if (h >= 0) {
+                hbWheel.expireNow(h);
+                System.out.println("[CENTRAL] CP " + cpID + " DESCONECTADO (conexión cerrada)");
+            }
+            return null;
+        });
     }
 
     // ============================================================
@@ -470,7 +684,7 @@ public class EVCentral {
         try {
             if (!m.has("type") || !"CMD".equals(m.get("type").getAsString())) return;
 
-            // --- Anti-eco: Central publica a T_CMD para el Engine; no debe re-procesarse a sí misma
+            // --- Anti-eco: lo publicado por Central nunca es una petición para sí misma
             String cmd = m.get("cmd").getAsString();
             String src = m.has("src") ? m.get("src").getAsString() : "";
             if ("CENTRAL".equals(src)) return;
@@ -487,35 +701,31 @@ public class EVCentral {
 
                         // intenta deducir sesión si no viene
                         if (session == null && cpID != null) {
-                            session = cpSesionesActivas.get(cpID);
+                            session = sesiones.idDeCp(cpID);
                         }
                         if (session == null && m.has("driver")) {
-                            String driverId = m.get("driver").getAsString();
-                            for (var e : sesiones.entrySet()) {
-                                var s = e.getValue();
-                                if (driverId.equals(s.driverID)) {
-                                    session = e.getKey();
-                                    cpID = s.cpID;
-                                    break;
-                                }
+                            var s = sesiones.deDriver(m.get("driver").getAsString());
+                            if (s != null) {
+                                session = s.sesionID;
+                                cpID = s.cpID;
                             }
                         }
 
                         if (session != null && cpID != null) {
                             if (m.has("driver")) {
                                 String driverId = m.get("driver").getAsString();
-                                bus.publish(T_SESSIONS, driverId,
+                                replyToDriver(driverId,
                                     obj("type","STOP_ACK","ts",System.currentTimeMillis(),
                                         "ok",true,"session",session,"cp",cpID,"src","CENTRAL"));
                             }
                             com.google.gson.JsonObject innerCmd = obj("type","CMD","ts",System.currentTimeMillis(),"src","CENTRAL",
                                           "cmd","STOP_SUPPLY","session",session,"cp",cpID);
                             com.google.gson.JsonObject enc = encryptForCp(cpID, innerCmd);
-                            bus.publish(T_CMD, cpID, enc);
+                            bus.publishAsync(T_CMD, cpID, enc);
                         } else {
                             if (m.has("driver")) {
                                 String driverId = m.get("driver").getAsString();
-                                bus.publish(T_SESSIONS, driverId,
+                                replyToDriver(driverId,
                                     obj("type","STOP_ACK","ts",System.currentTimeMillis(),
                                         "ok",false,"reason","SESSION_NOT_FOUND","src","CENTRAL"));
                             }
@@ -528,12 +738,12 @@ public class EVCentral {
                         String session = m.has("session") ? m.get("session").getAsString() : null;
                         String cpID    = m.has("cp") ? m.get("cp").getAsString() : null;
                         if (cpID != null) cpID = cpID.toUpperCase(java.util.Locale.ROOT);
-                        if (session == null && cpID != null) session = cpSesionesActivas.get(cpID);
+                        if (session == null && cpID != null) session = sesiones.idDeCp(cpID);
                         if (session != null && cpID != null) {
                             com.google.gson.JsonObject innerCmd = obj("type","CMD","ts",System.currentTimeMillis(),"src","CENTRAL",
                                           "cmd","PAUSE_SUPPLY","session",session,"cp",cpID);
                             com.google.gson.JsonObject enc = encryptForCp(cpID, innerCmd);
-                            bus.publish(T_CMD, cpID, enc);
+                            bus.publishAsync(T_CMD, cpID, enc);
                         }
                         return;
                     }
@@ -543,12 +753,12 @@ public class EVCentral {
                         String session = m.has("session") ? m.get("session").getAsString() : null;
                         String cpID    = m.has("cp") ? m.get("cp").getAsString() : null;
                         if (cpID != null) cpID = cpID.toUpperCase(java.util.Locale.ROOT);
-                        if (session == null && cpID != null) session = cpSesionesActivas.get(cpID);
+                        if (session == null && cpID != null) session = sesiones.idDeCp(cpID);
                         if (session != null && cpID != null) {
                             com.google.gson.JsonObject innerCmd = obj("type","CMD","ts",System.currentTimeMillis(),"src","CENTRAL",
                                           "cmd","RESUME_SUPPLY","session",session,"cp",cpID);
                             com.google.gson.JsonObject enc = encryptForCp(cpID, innerCmd);
-                            bus.publish(T_CMD, cpID, enc);
+                            bus.publishAsync(T_CMD, cpID, enc);
                         }
                         return;
                     }
@@ -565,7 +775,7 @@ public class EVCentral {
 
             // 1) Valida driver
             if (!ensureDriver(driverId)) {
-                bus.publish(T_SESSIONS, driverId,
+                replyToDriver(driverId,
                     obj("type","AUTH","ts",System.currentTimeMillis(),
                         "driver",driverId,"cp",cpID,"ok",false,"reason","DRIVER_INVALIDO","src","CENTRAL"));
                 audit("REQ_START_FAIL", "DRV=" + driverId + " cp=" + cpID, "reason=DRIVER_INVALIDO");
@@ -574,9 +784,9 @@ public class EVCentral {
             
 
             // 2) Valida CP
-            CPInfo info = cps.get(cpID);
-            if (info == null) {
-                bus.publish(T_SESSIONS, driverId,
+            int h = cps.handleOf(cpID);
+            if (h < 0) {
+                replyToDriver(driverId,
                     obj("type","AUTH","ts",System.currentTimeMillis(),
                         "driver",driverId,"cp",cpID,"ok",false,"reason","CP_DESCONOCIDO","src","CENTRAL"));
                 audit("REQ_START_FAIL", "DRV=" + driverId + " cp=" + cpID, "reason=CP_DESCONOCIDO");
@@ -585,110 +795,77 @@ public class EVCentral {
             
 
 
-            // 3) Reservar y construir mensajes bajo lock; publicar fuera
+            // 3) Reservar el CP con un CAS sobre su estado (libre y ACTIVADO -> ocupado, ESPERANDO_PLUG);
+            //    si dos REQ_START van a por el mismo CP solo uno gana. Luego mensajes y publicación.
             String sesId = null;
             double price = 0.0;
             com.google.gson.JsonObject authMsg = null, startCmd = null, sessStart = null;
 
-            synchronized (info) {
-                long now = System.currentTimeMillis();
+            long now = System.currentTimeMillis();
+            String motivo;
+            for (;;) {
+                long st = cps.st(h);
+                motivo = CpState.motivoRechazo(st);
+                if (motivo != null) break;
+                long reservado = CpState.with(CpState.flag(st, CpState.OCUPADO, true), CpState.Estado.ESPERANDO_PLUG);
+                if (cps.compareAndSet(h, st, reservado)) break;
+            }
 
-                // 1) Clima: si hay alerta meteorológica, NO se permite nueva sesión
-                if (info.weatherAlert) {
-                    authMsg = obj("type","AUTH","ts",now,
-                                "driver",driverId,"cp",cpID,
-                                "ok",false,
-                                "reason","WEATHER_ALERT",
-                                "src","CENTRAL");
-                    audit("REQ_START_FAIL",
-                        "DRV=" + driverId + " cp=" + cpID,
-                        "reason=WEATHER_ALERT tempC=" + info.tempC);
-                }
+            if (motivo != null) {
+                // Clima (WEATHER_ALERT), estado general (DESCONECTADO, AVERIADO...), PARADO u OCUPADO
+                authMsg = obj("type","AUTH","ts",now,
+                            "driver",driverId,"cp",cpID,
+                            "ok",false,
+                            "reason",motivo,
+                            "src","CENTRAL");
+                audit("REQ_START_FAIL",
+                    "DRV=" + driverId + " cp=" + cpID,
+                    "reason=" + motivo + ("WEATHER_ALERT".equals(motivo) ? " tempC=" + cps.tempC(h) : ""));
+            }
 
-                // 2) Estado general del CP (DESCONECTADO, AVERIADO, etc.)
-                else if (!"ACTIVADO".equals(info.estado)) {
-                    authMsg = obj("type","AUTH","ts",now,
-                                "driver",driverId,"cp",cpID,
-                                "ok",false,
-                                "reason",info.estado,
-                                "src","CENTRAL");
-                    audit("REQ_START_FAIL",
-                        "DRV=" + driverId + " cp=" + cpID,
-                        "reason=" + info.estado);
-                }
+            // OK -> crear sesión
+            else {
+                sesId = "S-" + now;
+                price = cps.price(h);
 
-                // 3) Parado manualmente
-                else if (info.parado) {
-                    authMsg = obj("type","AUTH","ts",now,
-                                "driver",driverId,"cp",cpID,
-                                "ok",false,
-                                "reason","PARADO",
-                                "src","CENTRAL");
-                    audit("REQ_START_FAIL",
-                        "DRV=" + driverId + " cp=" + cpID,
-                        "reason=PARADO");
-                }
+                var sInf = new SesionInfo(sesId, cpID, driverId);
+                sesiones.abrir(sInf);
 
-                // 4) Ya ocupado
-                else if (info.ocupado) {
-                    authMsg = obj("type","AUTH","ts",now,
+                try { dbOpenSession(sesId, cpID, driverId, price); } catch (Exception ignore) {}
+
+                audit("REQ_START_OK",
+                    "DRV=" + driverId + " cp=" + cpID,
+                    "session=" + sesId + " price=" + price);
+
+                authMsg   = obj("type","AUTH","ts",now,
                                 "driver",driverId,"cp",cpID,
-                                "ok",false,
-                                "reason","OCUPADO",
+                                "ok",true,
+                                "session",sesId,
+                                "price",price,
                                 "src","CENTRAL");
-                    audit("REQ_START_FAIL",
-                        "DRV=" + driverId + " cp=" + cpID,
-                        "reason=OCUPADO");
-                }
 
-                // 5) OK -> crear sesión
-                else {
-                    sesId = "S-" + now;
-                    price = info.precio;
-                    info.ocupado = true;
-                    info.estado  = "ESPERANDO_PLUG";
-
-                    var sInf = new SesionInfo(sesId, cpID, driverId);
-                    sesiones.put(sesId, sInf);
-                    cpSesionesActivas.put(cpID, sesId);
-
-                    try { dbOpenSession(sesId, cpID, driverId, price); } catch (Exception ignore) {}
-
-                    audit("REQ_START_OK",
-                        "DRV=" + driverId + " cp=" + cpID,
-                        "session=" + sesId + " price=" + price);
-
-                    authMsg   = obj("type","AUTH","ts",now,
-                                    "driver",driverId,"cp",cpID,
-                                    "ok",true,
-                                    "session",sesId,
-                                    "price",price,
-                                    "src","CENTRAL");
-
-                    startCmd  = obj("type","CMD","ts",now,
-                                    "src","CENTRAL",
-                                    "cmd","START_SUPPLY",
-                                    "session",sesId,
-                                    "cp",cpID,
-                                    "price",price);
-
-                    sessStart = obj("type","SESSION_START","ts",now,
-                                    "src","CENTRAL",
-                                    "session",sesId,
-                                    "cp",cpID,
-                                    "driver",driverId,
-                                    "price",price);
-                }
+                startCmd  = obj("type","CMD","ts",now,
+                                "src","CENTRAL",
+                                "cmd","START_SUPPLY",
+                                "session",sesId,
+                                "cp",cpID,
+                                "price",price);
+
+                sessStart = obj("type","SESSION_START","ts",now,
+                                "src","CENTRAL",
+                                "session",sesId,
+                                "cp",cpID,
+                                "driver",driverId,
+                                "price",price);
             }
-            // fin synchronized(info)
 
-            // 4) Publicaciones FUERA del lock
-            if (authMsg != null) bus.publish(T_SESSIONS, driverId, authMsg);
+            // 4) Publicaciones
+            if (authMsg != null) replyToDriver(driverId, authMsg);
             if (startCmd != null && sessStart != null) {
                 com.google.gson.JsonObject encStart = encryptForCp(cpID, startCmd);
-                bus.publish(T_CMD,      cpID,  encStart);
-                // T_SESSIONS hacia el driver sigue en claro.
-                bus.publish(T_SESSIONS, sesId, sessStart);
+                bus.publishAsync(T_CMD,      cpID,  encStart);
+                // SESSION_START en claro en T_SESSIONS (feed de estado de sesiones)
+                bus.publishAsync(T_SESSIONS, sesId, sessStart);
             }
 
         } catch (Exception e) {
@@ -696,6 +873,86 @@ public class EVCentral {
         }
     }
 
+    // Respuestas CENTRAL -> DRIVER, clave = driver. Con kafka.replies.perDriverTopic (por defecto) cada
+    // driver tiene su topic (T_REPLIES.<driver>, 1 partición) y no recibe nada de otros drivers. Si no,
+    // topic compartido: el driver lee la partición de su clave y descarta el resto sin decodificar.
+    // CENTRAL no crea topics: el de cada driver lo crea el propio driver al arrancar. Lo que va a un id
+    // sin validar (DRIVER_INVALIDO, STOP_ACK de un driver desconocido) sale por el compartido, que el
+    // driver también lee, para que un id cualquiera en un mensaje no deje un topic nuevo en el broker.
+    private void replyToDriver(String driverId, JsonObject msg) {
+        String topic = T_REPLIES;
+        if (repliesPorDriver && driverId != null && driversValidos.contains(driverId)) {
+            topic = EventBus.topicFor(T_REPLIES, driverId);
+        }
+        bus.publishAsync(topic, driverId, msg);
+    }
+
+    // Codec de TEL por hilo de worker (MsgCodec/WireMsg no son thread-safe)
+    private static final ThreadLocal<MsgCodec> TEL_CODEC = ThreadLocal.withInitial(MsgCodec::new);
+    private static final ThreadLocal<WireMsg>  TEL_MSG   = ThreadLocal.withInitial(WireMsg::new);
+
+    // Timeout de heartbeat vencido (hilo del watchdog, con el lock de la rueda): marcamos el CP como
+    // desconectado, pero NO cortamos la sesión en el CP ni enviamos STOP_SUPPLY.
+    private void expirarHb(int h) {
+        cps.getAndUpdate(h, w -> CpState.with(CpState.flag(w, CpState.DESCONECTADO, true),
+                                              CpState.Estado.DESCONECTADO));
+    }
+
+    private void aplicarHb(int h, boolean ok, long now) {
+        cps.lastHb(h, now);
+        // Primero se rearma el vencimiento y luego se quita la marca: la rueda no puede volver a ponerla
+        hbWheel.touch(h, now);
+        cps.getAndUpdate(h, w -> {
+            w = CpState.flag(w, CpState.DESCONECTADO, false);
+            if (!ok) return CpState.with(w, CpState.Estado.AVERIADO);
+            if (!CpState.has(w, CpState.PARADO) && !CpState.has(w, CpState.WEATHER)) {
+                return CpState.with(w, CpState.Estado.ACTIVADO);
+            }
+            return w;
+        });
+    }
+
+    // HB_BATCH {"ts":..,"items":[{"cp":..,"ok":..,"ts":..},...]}: una pasada, una sola hora de recepción
+    // para todo el lote (como en HB, lastHb es la hora de CENTRAL; el ts de cada entrada es informativo).
+    // Las entradas de CP no autenticados en esta conexión se descartan.
+    private void aplicarHbBatch(JsonObject msg, ConexionCp autenticados, String cliente) {
+        if (msg == null || !msg.has("items") || !msg.get("items").isJsonArray()) {
+            System.out.println("[CENTRAL] HB_BATCH sin items desde " + cliente);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int rechazadas = 0;
+        for (var el : msg.getAsJsonArray("items")) {
+            try {
+                JsonObject it = el.getAsJsonObject();
+                int h = cps.handleOf(it.get("cp").getAsString());
+                if (h < 0 || !autenticados.tiene(cps.id(h))) { rechazadas++; continue; }
+                aplicarHb(h, it.get("ok").getAsBoolean(), now);
+            } catch (RuntimeException bad) {
+                rechazadas++;
+            }
+        }
+        if (rechazadas > 0) {
+            System.out.println("[CENTRAL] HB_BATCH desde " + cliente + ": " + rechazadas +
+                               " entradas descartadas (CP sin AUTH_CP en esta conexión o mal formadas)");
+        }
+    }
+
+    private void aplicarTel(String ses, String cpRaw, double kwh, double eur) {
+        var sInf = sesiones.get(ses);
+        if (sInf != null) {
+            sInf.kWhAccumulado = kwh;
+            sInf.eurAccumulado = eur;
+        }
+
+        // Con handlers en paralelo un TEL rezagado puede llegar tras el SESSION_END:
+        // solo marcamos SUMINISTRANDO si la sesión sigue abierta
+        int h = cps.handleOf(cpRaw);
+        if (h >= 0 && sInf != null) {
+            cps.getAndUpdate(h, w -> CpState.with(w, CpState.Estado.SUMINISTRANDO));
+        }
+    }
+
     private void onKafkaTelemetry(com.google.gson.JsonObject m) {
         try {
             if (!m.has("type")) return;
@@ -703,32 +960,22 @@ public class EVCentral {
 
             // Si viene cifrado desde el ENGINE / EV_W
             if ("ENC".equals(type)) {
-                var inner = decryptFromCp(m);  // usa secret/cp.key
-                if (inner == null) return;
-                m = inner;
+                byte[] plain = decryptBytesFromCp(m);  // usa secret/cp.key
+                if (plain == null) return;
+                // TEL (el grueso del tráfico) por su codec: campos directos, sin árbol
+                WireMsg tm = TEL_CODEC.get().read(plain, 0, plain.length, TEL_MSG.get());
+                if (tm.typed() && MsgCodec.TEL.equals(tm.type)) {
+                    aplicarTel(tm.session, tm.cp, tm.kwh, tm.eur);
+                    return;
+                }
+                m = tm.json != null ? tm.json : tm.toJson();
                 if (!m.has("type")) return;
                 type = m.get("type").getAsString();
             }
 
             switch (type) {
-                case "TEL" -> {
-                    String ses = m.get("session").getAsString();
-                    String cpID  = m.get("cp").getAsString().toUpperCase(java.util.Locale.ROOT);
-
-                    double kwh = m.get("kwh").getAsDouble();
-                    double eur = m.get("eur").getAsDouble();
-
-                    var sInf = sesiones.get(ses);
-                    if (sInf != null) {
-                        sInf.kWhAccumulado = kwh;
-                        sInf.eurAccumulado = eur;
-                    }
-
-                    var info = cps.get(cpID);
-                    if (info != null) synchronized (info) {
-                        if (!"SUMINISTRANDO".equals(info.estado)) info.estado = "SUMINISTRANDO";
-                    }
-                }
+                case "TEL" -> aplicarTel(m.get("session").getAsString(), m.get("cp").getAsString(),
+                                         m.get("kwh").getAsDouble(), m.get("eur").getAsDouble());
 
                 case "WEATHER" -> {
                     String cpID  = m.get("cp").getAsString().toUpperCase(java.util.Locale.ROOT);
@@ -736,38 +983,36 @@ public class EVCentral {
                     boolean alert = m.get("alert").getAsBoolean();
                     long ts = m.has("ts") ? m.get("ts").getAsLong() : System.currentTimeMillis();
 
-                    CPInfo info = cps.get(cpID);
-                    if (info == null) return;
-
-                    boolean wasAlert;
-                    boolean ocupadoAhora;
-                    synchronized (info) {
-                        wasAlert = info.weatherAlert;
-                        info.tempC = tempC;
-                        info.weatherAlert = alert;
-                        info.lastWeatherTs = ts;
-                        ocupadoAhora = info.ocupado;
+                    int h = cps.handleOf(cpID);
+                    if (h < 0) return;
 
+                    cps.tempC(h, tempC);
+                    cps.weatherTs(h, ts);
+                    long prev = cps.getAndUpdate(h, w -> {
+                        w = CpState.flag(w, CpState.WEATHER, alert);
                         if (alert) {
                             // visualmente marcamos como AVERIADO por meteo
-                            info.estado = "AVERIADO";
-                        } else {
-                            // si se despeja y no está parado/averiado por otra cosa
-                            if (!info.parado && !"AVERIADO".equals(info.estado) && !info.ocupado) {
-                                info.estado = "ACTIVADO";
-                            }
+                            return CpState.with(w, CpState.Estado.AVERIADO);
                         }
-                    }
+                        // si se despeja y no está parado/averiado por otra cosa
+                        if (!CpState.has(w, CpState.PARADO) && CpState.estado(w) != CpState.Estado.AVERIADO
+                                && !CpState.has(w, CpState.OCUPADO)) {
+                            return CpState.with(w, CpState.Estado.ACTIVADO);
+                        }
+                        return w;
+                    });
+                    boolean wasAlert     = CpState.has(prev, CpState.WEATHER);
+                    boolean ocupadoAhora = CpState.has(prev, CpState.OCUPADO);
 
                     System.out.printf("[CENTRAL][WEATHER] cp=%s temp=%.2f alert=%s%n",
                             cpID, tempC, alert);
 
                     // Si acaba de entrar en alerta y está suministrando -> STOP_SUPPLY automático
                     if (alert && !wasAlert && ocupadoAhora) {
-                        String sesId = cpSesionesActivas.get(cpID);
+                        String sesId = sesiones.idDeCp(cpID);
                         if (sesId != null) {
                             markStopRequested(cpID);
-                            bus.publish(T_CMD, cpID,
+                            bus.publishAsync(T_CMD, cpID,
                                 obj("type","CMD","src","CENTRAL","ts",System.currentTimeMillis(),
                                     "cmd","STOP_SUPPLY","cp",cpID,"session",sesId,
                                     "reason","WEATHER_ALERT"));
@@ -824,16 +1069,17 @@ public class EVCentral {
             if (eraSTOP && "OK".equals(reason)) reason = "STOP_REQUESTED";
 
             // Borramos de estructuras en memoria
-            sesiones.remove(sesId);
+            SesionInfo cerrada = sesiones.cerrar(sesId);
             if (cpID != null) {
-                cpSesionesActivas.remove(cpID, sesId);
-
-                var info = cps.get(cpID);
-                if (info != null) synchronized (info) {
-                    info.ocupado = false;
-                    if (!info.parado && !"AVERIADO".equals(info.estado)) {
-                        info.estado = "ACTIVADO";
-                    }
+                int h = cps.handleOf(cpID);
+                if (h >= 0) {
+                    cps.getAndUpdate(h, w -> {
+                        w = CpState.flag(w, CpState.OCUPADO, false);
+                        if (!CpState.has(w, CpState.PARADO) && CpState.estado(w) != CpState.Estado.AVERIADO) {
+                            return CpState.with(w, CpState.Estado.ACTIVADO);
+                        }
+                        return w;
+                    });
                 }
             }
 
@@ -841,6 +1087,14 @@ public class EVCentral {
                 dbCloseSession(sesId, tsEnd, reason, kwh, eur);
             } catch (Exception ignore) {}
 
+            // Ticket al driver por su canal de respuestas (lo del ENGINE viene cifrado para CENTRAL)
+            if (cerrada != null && cerrada.driverID != null) {
+                replyToDriver(cerrada.driverID,
+                    obj("type","SESSION_END","ts",tsEnd,"src","CENTRAL",
+                        "session",sesId,"cp",cpID,"driver",cerrada.driverID,
+                        "kwh",kwh,"eur",eur,"reason",reason));
+            }
+
         } catch (Exception e) {
             System.err.println("[CENTRAL][KAFKA] SESSION_END: " + e.getMessage());
         }
@@ -1002,6 +1256,105 @@ public class EVCentral {
         } finally {
             ex.close();
         }
+    }
+        // GET /api/bus
+    private void handleApiBus(HttpExchange ex) {
+        try {
+            if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = bus.metrics().toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Access-Control-Allow-Origin","*");
+            ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+        } catch (Exception ignore) {
+        } finally {
+            ex.close();
+        }
+    }
+        // GET /api/auth  |  POST /api/auth/invalidate?cp=CP-001 (sin cp: toda la caché)
+    private void handleApiAuth(HttpExchange ex) {
+        try {
+            String method = ex.getRequestMethod();
+            String path = ex.getRequestURI().getPath();
+            JsonObject o;
+            if ("POST".equalsIgnoreCase(method) && path.endsWith("/invalidate")) {
+                var q = ex.getRequestURI().getQuery();
+                String cp = null;
+                if (q != null) {
+                    for (String kv : q.split("&")) {
+                        int i = kv.indexOf('=');
+                        if (i>0 && "cp".equalsIgnoreCase(kv.substring(0,i))) {
+                            cp = java.net.URLDecoder.decode(kv.substring(i+1), StandardCharsets.UTF_8);
+                        }
+                    }
+                }
+                if (cp == null || cp.isBlank()) {
+                    authCache.invalidateAll();
+                    cpKeys.clear();
+                } else {
+                    cp = cp.trim().toUpperCase(java.util.Locale.ROOT);
+                    authCache.invalidate(cp);
+                    cpKeys.remove(cp);
+                }
+                System.out.println("[CENTRAL][AUTH] Caché invalidada: " + (cp == null || cp.isBlank() ? "todo" : cp));
+                o = obj("ok", true, "cp", cp == null || cp.isBlank() ? "*" : cp);
+            } else if ("GET".equalsIgnoreCase(method)) {
+                o = authCache.stats();
+            } else {
+                ex.getResponseHeaders().add("Allow", "GET, POST");
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = o.toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Access-Control-Allow-Origin","*");
+            ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+        } catch (Exception ignore) {
+        } finally {
+            ex.close();
+        }
+    }
+        // GET /api/wire
+    private void handleApiWire(HttpExchange ex) {
+        try {
+            if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            JsonObject o = WireConn.totals();
+            o.addProperty("cpConnections", conexionesCp.size());
+            // Heap: en uso ahora y retenido tras la última recolección (lo que sirve para ver si crece)
+            Runtime rt = Runtime.getRuntime();
+            o.addProperty("heapUsedBytes", rt.totalMemory() - rt.freeMemory());
+            long trasGc = 0;
+            for (var pool : java.lang.management.ManagementFactory.getMemoryPoolMXBeans()) {
+                var u = pool.getType() == java.lang.management.MemoryType.HEAP ? pool.getCollectionUsage() : null;
+                if (u != null) trasGc += u.getUsed();
+            }
+            o.addProperty("heapAfterGcBytes", trasGc);
+            JsonObject adm = new JsonObject();
+            adm.addProperty("pendingAuthFree", authSlots.availablePermits());
+            adm.addProperty("retryRate", rechazosRate.sum());
+            adm.addProperty("retryBusy", rechazosBusy.sum());
+            adm.addProperty("authTimeouts", authTimeouts.sum());
+            o.add("admission", adm);
+            o.addProperty("batchBytes", wireBatchBytes);
+            o.addProperty("batchMs", wireBatchMs);
+            byte[] body = o.toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Access-Control-Allow-Origin","*");
+            ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+        } catch (Exception ignore) {
+        } finally {
+            ex.close();
+        }
     }
         // POST /api/weather  (llamado por EV_W)
     private void handleApiWeather(HttpExchange ex) {
@@ -1038,15 +1391,13 @@ public class EVCentral {
             w.lastUpdate = System.currentTimeMillis();
 
             String fromIp = ex.getRemoteAddress().getAddress().getHostAddress();
-            CPInfo info = cps.get(cpID);
+            int h = cps.handleOf(cpID);
 
             if (alert) {
                 // ---- ALERTA: bajar CP por clima ----
-                if (info != null) {
-                    synchronized (info) {
-                        info.parado = true;
-                        info.estado = "PARADO";  // “fuera de servicio” por clima
-                    }
+                if (h >= 0) {
+                    // “fuera de servicio” por clima
+                    cps.getAndUpdate(h, x -> CpState.with(CpState.flag(x, CpState.PARADO, true), CpState.Estado.PARADO));
                 }
 
                 // Si hay sesión en curso, pedimos STOP_SUPPLY
@@ -1056,19 +1407,20 @@ public class EVCentral {
                         "cmd","STOP_SUPPLY","cp",cpID,"reason","WEATHER_ALERT"
                 );
                 com.google.gson.JsonObject enc = encryptForCp(cpID, inner);
-                bus.publish(T_CMD, cpID, enc);
+                bus.publishAsync(T_CMD, cpID, enc);
 
                 audit("WEATHER_ALERT", "EV_W ip=" + fromIp,
                       "cp=" + cpID + " loc=" + loc + " tempC=" + tempC);
             } else {
                 // ---- Recuperación: volver a operar si no está averiado ni ocupado ----
-                if (info != null) {
-                    synchronized (info) {
-                        info.parado = false;
-                        if (!info.ocupado && !"AVERIADO".equals(info.estado)) {
-                            info.estado = "ACTIVADO";
+                if (h >= 0) {
+                    cps.getAndUpdate(h, x -> {
+                        x = CpState.flag(x, CpState.PARADO, false);
+                        if (!CpState.has(x, CpState.OCUPADO) && CpState.estado(x) != CpState.Estado.AVERIADO) {
+                            return CpState.with(x, CpState.Estado.ACTIVADO);
                         }
-                    }
+                        return x;
+                    });
                 }
                 audit("WEATHER_CLEAR", "EV_W ip=" + fromIp,
                       "cp=" + cpID + " loc=" + loc + " tempC=" + tempC);
@@ -1106,18 +1458,19 @@ public class EVCentral {
         long now = System.currentTimeMillis();
         StringBuilder sb = new StringBuilder();
 
-        for (var e : cps.entrySet()) {
-            String cpID = e.getKey();
-            CPInfo info = e.getValue();
+        for (int h = 0, n = cps.size(); h < n; h++) {
+            String cpID = cps.id(h);
 
-            String sesion = cpSesionesActivas.getOrDefault(cpID, "-");
-            var sInf = sesiones.get(sesion);
+            var sInf = sesiones.deCp(h);
+            String sesion = sInf != null ? sInf.sesionID : "-";
             double kwh = (sInf != null) ? sInf.kWhAccumulado : 0.0;
             double eur = (sInf != null) ? sInf.eurAccumulado : 0.0;
             String driver = (sInf != null) ? sInf.driverID : "";
 
-            String est = estadoVisible(info);
-            long lag = now - info.lastHb;
+            long st = cps.st(h);
+            String est = CpState.visible(st).name();
+            long lag = now - cps.lastHb(h);
+            String ubicacion = cps.ubicacion(h);
 
             String encCp = java.net.URLEncoder.encode(cpID, StandardCharsets.UTF_8);
             String acc = "<a href='/cmd?op=PAUSE&cp="+encCp+"'>PAUSE</a> | "
@@ -1126,12 +1479,12 @@ public class EVCentral {
 
             sb.append("<tr class='").append(est).append("'>")
             .append("<td>").append(toHtml(cpID)).append("</td>")
-            .append("<td>").append(toHtml(info.ubicacion!=null?info.ubicacion:"")).append("</td>")
+            .append("<td>").append(toHtml(ubicacion!=null?ubicacion:"")).append("</td>")
             .append("<td>").append(est).append("</td>")
-            .append("<td>").append(info.parado ? "SI" : "NO").append("</td>")
-            .append("<td>").append(info.ocupado ? "SI" : "NO").append("</td>")
+            .append("<td>").append(CpState.has(st, CpState.PARADO) ? "SI" : "NO").append("</td>")
+            .append("<td>").append(CpState.has(st, CpState.OCUPADO) ? "SI" : "NO").append("</td>")
             .append("<td>").append(lag).append("</td>")
-            .append("<td>").append(String.format(java.util.Locale.ROOT,"%.4f", info.precio)).append("</td>")
+            .append("<td>").append(String.format(java.util.Locale.ROOT,"%.4f", cps.price(h))).append("</td>")
             .append("<td>").append("-".equals(sesion) ? "" : toHtml(sesion)).append("</td>")
             .append("<td>").append(toHtml(driver)).append("</td>")
             .append("<td>").append(String.format(java.util.Locale.ROOT,"%.5f", kwh)).append("</td>")
@@ -1146,8 +1499,7 @@ public class EVCentral {
         StringBuilder sb = new StringBuilder();
         sb.append("{\"items\":[");
         boolean first = true;
-        for (var e : sesiones.entrySet()) {
-            SesionInfo s = e.getValue();
+        for (SesionInfo s : sesiones.todas()) {
             if (!first) sb.append(',');
             first = false;
             sb.append("{")
@@ -1168,9 +1520,8 @@ public class EVCentral {
 
         JsonArray items = new JsonArray();
 
-        for (var e : cps.entrySet()) {
-            String cpID = e.getKey();
-            CPInfo info = e.getValue();
+        for (int h = 0, n = cps.size(); h < n; h++) {
+            String cpID = cps.id(h);
 
             String estadoVisible;
             boolean ocupado, parado;
@@ -1181,21 +1532,21 @@ public class EVCentral {
             long weatherTs;
             String ubicacion;
 
-            // snapshot coherente bajo lock
-            synchronized (info) {
-                estadoVisible = estadoVisible(info);
-                ocupado       = info.ocupado;
-                parado        = info.parado;
-                lastHb        = info.lastHb;
-                precio        = info.precio;
-                tempC         = info.tempC;
-                weatherAlert  = info.weatherAlert;
-                weatherTs     = info.lastWeatherTs;
-                ubicacion     = info.ubicacion;
-            }
-
-            String sesionId = cpSesionesActivas.getOrDefault(cpID, "-");
-            var sInf = sesiones.get(sesionId);
+            // estado/flags: una sola lectura de la palabra (foto coherente, sin lock)
+            long st = cps.st(h);
+            estadoVisible = CpState.visible(st).name();
+            ocupado       = CpState.has(st, CpState.OCUPADO);
+            parado        = CpState.has(st, CpState.PARADO);
+            weatherAlert  = CpState.has(st, CpState.WEATHER);
+            lastHb        = cps.lastHb(h);
+            precio        = cps.price(h);
+            double t      = cps.tempC(h);
+            tempC         = Double.isNaN(t) ? null : t;   // NaN = sin dato
+            weatherTs     = cps.weatherTs(h);
+            ubicacion     = cps.ubicacion(h);
+
+            var sInf = sesiones.deCp(h);
+            String sesionId = sInf != null ? sInf.sesionID : "-";
 
             double kwh = 0.0, eur = 0.0;
             String driverId = "";
@@ -1255,7 +1606,7 @@ public class EVCentral {
         com.google.gson.JsonObject inner = obj("type","CMD","src","CENTRAL","ts",System.currentTimeMillis(),
                                                "cmd","STOP_SUPPLY","cp",cpID);
         com.google.gson.JsonObject enc = encryptForCp(cpID, inner);
-        bus.publish(T_CMD, cpID, enc);
+        bus.publishAsync(T_CMD, cpID, enc);
 
         return "ACK PAUSE " + cpID + " (STOP_SUPPLY publicado)";
     }
@@ -1268,7 +1619,7 @@ public class EVCentral {
         com.google.gson.JsonObject inner = obj("type","CMD","src","CENTRAL","ts",System.currentTimeMillis(),
                                                "cmd","RESUME","cp",cpID);
         com.google.gson.JsonObject enc = encryptForCp(cpID, inner);
-        bus.publish(T_CMD, cpID, enc);
+        bus.publishAsync(T_CMD, cpID, enc);
 
         return "ACK RESUME " + cpID + " (RESUME publicado)";
     }
@@ -1281,29 +1632,29 @@ public class EVCentral {
         com.google.gson.JsonObject inner = obj("type","CMD","src","CENTRAL","ts",System.currentTimeMillis(),
                                                "cmd","STOP_SUPPLY","cp",cpID);
         com.google.gson.JsonObject enc = encryptForCp(cpID, inner);
-        bus.publish(T_CMD, cpID, enc);
+        bus.publishAsync(T_CMD, cpID, enc);
 
         return "ACK STOP " + cpID + " (STOP_SUPPLY publicado)";
     }
 
 
     private void applyPauseLocal(String cpID){
-        CPInfo info = cps.get(cpID);
-        if (info == null) return;
-        synchronized (info) { info.parado = true; }
+        int h = cps.handleOf(cpID);
+        if (h < 0) return;
+        cps.getAndUpdate(h, w -> CpState.flag(w, CpState.PARADO, true));
     }
 
     private void applyResumeLocal(String cpID){
-        CPInfo info = cps.get(cpID);
-        if (info == null) return;
-        synchronized (info) {
-            info.parado = false;
-            if (!"AVERIADO".equals(info.estado)) info.estado = "ACTIVADO";
-        }
+        int h = cps.handleOf(cpID);
+        if (h < 0) return;
+        cps.getAndUpdate(h, w -> {
+            w = CpState.flag(w, CpState.PARADO, false);
+            return CpState.estado(w) != CpState.Estado.AVERIADO ? CpState.with(w, CpState.Estado.ACTIVADO) : w;
+        });
     }
   
     private void markStopRequested(String cpID){
-        String sId = cpSesionesActivas.get(cpID);
+        String sId = sesiones.idDeCp(cpID);
         if (sId != null) stopSolicitado.add(sId);
     }
 
@@ -1354,14 +1705,13 @@ public class EVCentral {
                 while (rs.next()) {
                     String cp = rs.getString(1), ubicacion = rs.getString(2);
                     double precio = rs.getBigDecimal(3).doubleValue();
-                    CPInfo info = cps .computeIfAbsent(cp, _ -> new CPInfo());
-                    info.cpID = cp;
-                    info.ubicacion = ubicacion;
-                    info.precio = precio;
-                    info.estado = "DESCONECTADO";
-                    info.ocupado = false;
-                    info.parado = false;
-                    info.lastHb = 0L;
+                    int h = cps.intern(cp);
+                    cps.ubicacion(h, ubicacion);
+                    cps.price(h, precio);
+                    cps.getAndUpdate(h, w -> CpState.with(CpState.flag(CpState.flag(CpState.flag(w,
+                            CpState.OCUPADO, false), CpState.PARADO, false), CpState.DESCONECTADO, true),
+                            CpState.Estado.DESCONECTADO));
+                    cps.lastHb(h, 0L);
                     n++;
                 }
                 System.out.println("[CENTRAL][DB] CPs precargados: " + n);                
@@ -1456,15 +1806,11 @@ public class EVCentral {
                 String driver = rs.getString(3);
 
                 // reconstruye in-memory
-                var info = cps.computeIfAbsent(cpID, _ -> new CPInfo());
-                synchronized (info) {
-                    info.cpID   = cpID;
-                    info.estado = "ESPERANDO_PLUG"; // o "DESCONECTADO" si no hay HB aún
-                    info.ocupado= true;
-                }
+                int h = cps.intern(cpID);
+                // ESPERANDO_PLUG (y DESCONECTADO hasta el primer HB)
+                cps.getAndUpdate(h, w -> CpState.with(CpState.flag(w, CpState.OCUPADO, true), CpState.Estado.ESPERANDO_PLUG));
                 var sInf = new SesionInfo(sesId, cpID, driver);
-                sesiones.put(sesId, sInf);
-                cpSesionesActivas.put(cpID, sesId);
+                sesiones.abrir(sInf);
                 n++;
             }
             System.out.println("[CENTRAL][RECOVERY] Sesiones abiertas rehidratadas: " + n);
@@ -1485,34 +1831,35 @@ public class EVCentral {
             return new AuthResult(true, key, null);
         }
 
-        try (var cn = java.sql.DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
-             var ps = cn.prepareStatement(
-                     "SELECT secret, status FROM EV_CP_REGISTRY WHERE cp_id = ?")) {
-
-            ps.setString(1, cpId);
-            try (var rs = ps.executeQuery()) {
-                if (!rs.next()) {
-                    audit("AUTH_CP_FAIL", "CP=" + cpId + " ip=" + remoteIp,
-                          "reason=NOT_REGISTERED");
-                    return new AuthResult(false, null, "NOT_REGISTERED");
-                }
+        try {
+            CpAuthCache.Entry e = authCache.get(cpId);
+            // Secret distinto al guardado: puede que el CP se haya vuelto a registrar y la caché esté
+            // vieja. Se relee de BD antes de rechazar con BAD_SECRET, como mucho una vez cada recheckMs.
+            if (e.cached && e.registered() && !e.secret.equals(secret)) {
+                e = authCache.recheck(cpId, e);
+            }
 
-                String dbSecret = rs.getString("secret");
-                String status   = rs.getString("status");
+            if (!e.registered()) {
+                audit("AUTH_CP_FAIL", "CP=" + cpId + " ip=" + remoteIp,
+                      "reason=NOT_REGISTERED");
+                return new AuthResult(false, null, "NOT_REGISTERED");
+            }
 
-                if (!"ACTIVO".equalsIgnoreCase(status)) {
-                    audit("AUTH_CP_FAIL", "CP=" + cpId + " ip=" + remoteIp,
-                          "reason=NOT_ACTIVE status=" + status);
-                    return new AuthResult(false, null, "NOT_ACTIVE");
-                }
+            if (!"ACTIVO".equalsIgnoreCase(e.status)) {
+                audit("AUTH_CP_FAIL", "CP=" + cpId + " ip=" + remoteIp,
+                      "reason=NOT_ACTIVE status=" + e.status);
+                return new AuthResult(false, null, "NOT_ACTIVE");
+            }
 
-                if (!dbSecret.equals(secret)) {
-                    audit("AUTH_CP_FAIL", "CP=" + cpId + " ip=" + remoteIp,
-                          "reason=BAD_SECRET");
-                    return new AuthResult(false, null, "BAD_SECRET");
-                }
+            if (!e.secret.equals(secret)) {
+                authCache.badSecret();
+                audit("AUTH_CP_FAIL", "CP=" + cpId + " ip=" + remoteIp,
+                      "reason=BAD_SECRET");
+                return new AuthResult(false, null, "BAD_SECRET");
             }
 
+            // La clave AES es la columna secret: ya la tenemos, sin segunda consulta en getOrCreateCpKey
+            cpKeys.put(cpId, e.secret);
             String key = getOrCreateCpKey(cpId);
             audit("AUTH_CP_OK", "CP=" + cpId + " ip=" + remoteIp,
                   "Clave asignada=" + key);
@@ -1525,6 +1872,20 @@ public class EVCentral {
         }
     }
 
+    // Fila de EV_CP_REGISTRY para CpAuthCache: {secret, status}, o null si el CP no existe
+    private static String[] leerCpRegistry(String cpId) throws java.sql.SQLException {
+        try (var cn = java.sql.DriverManager.getConnection(DB_URL, DB_USER, DB_PASS);
+             var ps = cn.prepareStatement(
+                     "SELECT secret, status FROM EV_CP_REGISTRY WHERE cp_id = ?")) {
+
+            ps.setString(1, cpId);
+            try (var rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                return new String[] { rs.getString("secret"), rs.getString("status") };
+            }
+        }
+    }
+
     
     private String getOrCreateCpKey(String cpId) {
         // 1) ¿ya la tengo en memoria?
@@ -1579,6 +1940,10 @@ public class EVCentral {
     }
 
     private static String aesDecrypt(String cipherB64, String keyB64) throws Exception {
+        return new String(aesDecryptBytes(cipherB64, keyB64), java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private static byte[] aesDecryptBytes(String cipherB64, String keyB64) throws Exception {
         byte[] all = java.util.Base64.getDecoder().decode(cipherB64);
         if (all.length < 13) throw new IllegalArgumentException("cipher too short");
 
@@ -1592,8 +1957,7 @@ public class EVCentral {
         javax.crypto.spec.GCMParameterSpec spec = new javax.crypto.spec.GCMParameterSpec(128, iv);
         cipher.init(javax.crypto.Cipher.DECRYPT_MODE, key, spec);
 
-        byte[] plainBytes = cipher.doFinal(cipherBytes);
-        return new String(plainBytes, java.nio.charset.StandardCharsets.UTF_8);
+        return cipher.doFinal(cipherBytes);
     } 
     // ---------- Cifrado simétrico AES/GCM para CPs ----------
         
@@ -1619,6 +1983,18 @@ public class EVCentral {
     }
 
     private com.google.gson.JsonObject decryptFromCp(com.google.gson.JsonObject env) {
+        byte[] plain = decryptBytesFromCp(env);
+        if (plain == null) return null;
+        try {
+            return com.google.gson.JsonParser.parseString(new String(plain, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (Exception e) {
+            System.err.println("[CENTRAL][DEC] Error descifrando desde CP: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // JSON en claro (UTF-8) de un sobre ENC, para decodificarlo con MsgCodec sin pasar por String
+    private byte[] decryptBytesFromCp(com.google.gson.JsonObject env) {
         try {
             if (!env.has("cp") || !env.has("payload")) {
                 System.err.println("[CENTRAL][DEC] Mensaje ENC sin cp/payload");
@@ -1631,8 +2007,7 @@ public class EVCentral {
                 return null;
             }
             String cipherB64 = env.get("payload").getAsString();
-            String plainJson = aesDecrypt(cipherB64, keyB64);
-            return com.google.gson.JsonParser.parseString(plainJson).getAsJsonObject();
+            return aesDecryptBytes(cipherB64, keyB64);
         } catch (Exception e) {
             System.err.println("[CENTRAL][DEC] Error descifrando desde CP: " + e.getMessage());
             return null;
@@ -77,6 +77,8 @@ public class EVRegistry {
                     return;
                 }
 
+                avisarCentral(cpId);
+
                 JsonObject resp = new JsonObject();
                 resp.addProperty("status", "OK");
                 resp.addProperty("cpId", cpId);
@@ -92,6 +94,32 @@ public class EVRegistry {
         }
     }
 
+    // --- Aviso a CENTRAL ------------------------------------------------------
+
+    private static final java.net.http.HttpClient HTTP = java.net.http.HttpClient.newBuilder()
+            .connectTimeout(java.time.Duration.ofSeconds(2)).build();
+
+    // CENTRAL guarda en caché secret/status (y los NOT_REGISTERED) para AUTH_CP: tras un alta o una
+    // reactivación le pedimos que olvide ese CP. Sin esperar respuesta; si falla, caduca por TTL.
+    private static void avisarCentral(String cpId) {
+        String url = config.getProperty("registry.central.invalidateUrl", "").trim();
+        if (url.isEmpty()) return;
+        try {
+            var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(url + "?cp=" +
+                            java.net.URLEncoder.encode(cpId, StandardCharsets.UTF_8)))
+                    .timeout(java.time.Duration.ofSeconds(2))
+                    .POST(java.net.http.HttpRequest.BodyPublishers.noBody())
+                    .build();
+            HTTP.sendAsync(req, java.net.http.HttpResponse.BodyHandlers.discarding())
+                .exceptionally(e -> {
+                    System.err.println("[EVR] No se pudo avisar a CENTRAL (" + cpId + "): " + e.getMessage());
+                    return null;
+                });
+        } catch (Exception e) {
+            System.err.println("[EVR] registry.central.invalidateUrl no válida: " + e.getMessage());
+        }
+    }
+
     // --- Lógica de BD --------------------------------------------------------
 
     private static Connection getConnection() throws SQLException {
@@ -0,0 +1,142 @@
+package central;
+
+import java.util.function.IntConsumer;
+
+// Rueda de tiempos (hashed timing wheel) para los vencimientos de heartbeat de los CP.
+// Cada CP (por su handle del registro) está enlazado en el hueco de su vencimiento; un HB lo mueve de
+// hueco (O(1)) y el tic solo recorre el hueco que toca, así que el coste por tic depende de los CP que
+// vencen, no del número de CP. La rueda abarca más que el timeout: todo lo que está en el hueco procesado
+// ha vencido. Sin nodos: los enlaces y el vencimiento de cada handle van en arrays por páginas (16 bytes
+// por CP), así que la rueda tampoco deja un objeto por CP.
+//
+// Un solo lock para la rueda; onExpire se ejecuta con él cogido (así un HB no puede colarse entre
+// "sacado del hueco" y "marcado desconectado"). Quien llame a touch() no debe tener otro lock que
+// onExpire también necesite.
+final class HbWheel {
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE - 1;
+
+    // Enlaces codificados: 0 = no enlazado, h + 1 = CP h, -(i + 1) = cabecera del hueco i
+    private int[][] prev = new int[1][], next = new int[1][];
+    private long[][] deadline = new long[1][];
+    private final int[] headPrev, headNext;
+
+    private final long tickMs;
+    private final long timeoutMs;
+    private final int nSlots, mask;
+    private final IntConsumer onExpire;
+
+    private long cursor;   // último tic procesado (tiempo / tickMs); un tic se procesa cuando ha terminado
+    private int armed;
+    private long expired;
+
+    HbWheel(long timeoutMs, long tickMs, IntConsumer onExpire) {
+        this.tickMs = Math.max(1L, tickMs);
+        this.timeoutMs = Math.max(this.tickMs, timeoutMs);
+        this.nSlots = Integer.highestOneBit((int) Math.min(1 << 20, this.timeoutMs / this.tickMs + 2)) << 1;
+        this.headPrev = new int[nSlots];
+        this.headNext = new int[nSlots];
+        for (int i = 0; i < nSlots; i++) headPrev[i] = headNext[i] = -(i + 1);
+        this.mask = nSlots - 1;
+        this.onExpire = onExpire;
+        this.cursor = System.currentTimeMillis() / this.tickMs - 1;
+    }
+
+    long timeoutMs() { return timeoutMs; }
+
+    // Latido del CP h recibido en now: el vencimiento pasa a now + timeout
+    synchronized void touch(int h, long now) {
+        ensure(h);
+        if (linked(h)) unlink(h);
+        else armed++;
+        long d = now + timeoutMs;
+        deadline[h >>> PAGE_SHIFT][h & PAGE_MASK] = d;
+        long t = Math.max(d / tickMs, cursor + 1);
+        int head = -((int) (t & mask) + 1), tail = prevOf(head), me = h + 1;
+        setPrev(me, tail);
+        setNext(me, head);
+        setNext(tail, me);
+        setPrev(head, me);
+    }
+
+    // Deja de vigilar el CP (borrado, etc.)
+    synchronized void cancel(int h) {
+        if (linked(h)) { unlink(h); armed--; }
+    }
+
+    // Vence ya, sin esperar al tic (conexión cerrada); onExpire se llama aunque no estuviera armado
+    synchronized void expireNow(int h) {
+        if (linked(h)) { unlink(h); armed--; }
+        expired++;
+        try { onExpire.accept(h); } catch (RuntimeException ignore) {}
+    }
+
+    // Procesa los tics ya terminados hasta now (si el hilo se retrasó, recupera los saltados).
+    // Todo lo de un tic terminado ha vencido; el deadline se comprueba igual por si acaso.
+    synchronized void advance(long now) {
+        long target = now / tickMs - 1;
+        // Una vuelta entera ya cubre todos los huecos
+        if (target - cursor > nSlots) cursor = target - nSlots;
+        while (cursor < target) {
+            cursor++;
+            int head = -((int) (cursor & mask) + 1);
+            for (int n = nextOf(head); n != head; ) {
+                int nx = nextOf(n), h = n - 1;
+                if (deadline[h >>> PAGE_SHIFT][h & PAGE_MASK] <= now) {
+                    unlink(h);
+                    armed--;
+                    expired++;
+                    try { onExpire.accept(h); } catch (RuntimeException ignore) {}
+                }
+                n = nx;
+            }
+        }
+    }
+
+    synchronized int armed() { return armed; }
+    synchronized long expired() { return expired; }
+
+    private boolean linked(int h) {
+        int p = h >>> PAGE_SHIFT;
+        return p < prev.length && prev[p] != null && prev[p][h & PAGE_MASK] != 0;
+    }
+
+    private void unlink(int h) {
+        int me = h + 1, p = prevOf(me), n = nextOf(me);
+        setNext(p, n);
+        setPrev(n, p);
+        setPrev(me, 0);
+        setNext(me, 0);
+    }
+
+    // Páginas hasta la del handle h
+    private void ensure(int h) {
+        int p = h >>> PAGE_SHIFT;
+        if (p >= prev.length) {
+            int np = Math.max(p + 1, prev.length * 2);
+            prev = java.util.Arrays.copyOf(prev, np);
+            next = java.util.Arrays.copyOf(next, np);
+            deadline = java.util.Arrays.copyOf(deadline, np);
+        }
+        if (prev[p] == null) {
+            prev[p] = new int[PAGE];
+            next[p] = new int[PAGE];
+            deadline[p] = new long[PAGE];
+        }
+    }
+
+    private int prevOf(int e) { return e < 0 ? headPrev[-e - 1] : prev[(e - 1) >>> PAGE_SHIFT][(e - 1) & PAGE_MASK]; }
+    private int nextOf(int e) { return e < 0 ? headNext[-e - 1] : next[(e - 1) >>> PAGE_SHIFT][(e - 1) & PAGE_MASK]; }
+
+    private void setPrev(int e, int v) {
+        if (e < 0) headPrev[-e - 1] = v;
+        else prev[(e - 1) >>> PAGE_SHIFT][(e - 1) & PAGE_MASK] = v;
+    }
+
+    private void setNext(int e, int v) {
+        if (e < 0) headNext[-e - 1] = v;
+        else next[(e - 1) >>> PAGE_SHIFT][(e - 1) & PAGE_MASK] = v;
+    }
+}
@@ -0,0 +1,111 @@
+package central;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Sesiones abiertas con sus índices secundarios (CP -> sesión, driver -> sesiones), para que REQ_STOP
+// sin session/cp, SESSION_END y los builders HTTP no recorran todas las sesiones.
+// Cada sesión abierta ocupa un hueco de la tabla (su handle, se reutiliza al cerrarla) y el índice
+// CP -> sesión es el campo ses del registro de CPs (hueco + 1), sin mapa aparte.
+// Altas y bajas bajo un solo lock, tocando todos los índices a la vez; las lecturas van sin lock.
+final class SesionIndex {
+
+    private static final EVCentral.SesionInfo[] NINGUNA = new EVCentral.SesionInfo[0];
+
+    private final CpRegistry cps;
+    private final ConcurrentHashMap<String, EVCentral.SesionInfo> porId = new ConcurrentHashMap<>();
+    // Copy-on-write: un driver tiene muy pocas sesiones; la más antigua primero
+    private final ConcurrentHashMap<String, EVCentral.SesionInfo[]> porDriver = new ConcurrentHashMap<>();
+    // Hueco -> sesión (se publica entera al crecer) y pila de huecos libres
+    private volatile EVCentral.SesionInfo[] huecos = new EVCentral.SesionInfo[64];
+    private int[] libres = new int[0];
+    private int nLibres, usados;
+
+    SesionIndex(CpRegistry cps) { this.cps = cps; }
+
+    synchronized void abrir(EVCentral.SesionInfo s) {
+        EVCentral.SesionInfo anterior = porId.put(s.sesionID, s);
+        if (anterior != null) quitarIndices(anterior);
+        s.hueco = reservarHueco(s);
+        // La del CP la sustituye (como antes); la anterior sigue abierta hasta su SESSION_END
+        int h = cps.handleOf(s.cpID);
+        if (h >= 0) cps.ses(h, s.hueco + 1);
+        if (s.driverID != null) {
+            EVCentral.SesionInfo[] v = porDriver.getOrDefault(s.driverID, NINGUNA);
+            EVCentral.SesionInfo[] n = java.util.Arrays.copyOf(v, v.length + 1);
+            n[v.length] = s;
+            porDriver.put(s.driverID, n);
+        }
+    }
+
+    // Quita la sesión y sus entradas en los índices; null si no estaba abierta
+    synchronized EVCentral.SesionInfo cerrar(String sesId) {
+        EVCentral.SesionInfo s = porId.remove(sesId);
+        if (s != null) quitarIndices(s);
+        return s;
+    }
+
+    private void quitarIndices(EVCentral.SesionInfo s) {
+        int h = cps.handleOf(s.cpID);
+        if (h >= 0) cps.casSes(h, s.hueco + 1, 0);   // solo si sigue siendo la del CP
+        liberarHueco(s);
+        if (s.driverID == null) return;
+        EVCentral.SesionInfo[] v = porDriver.get(s.driverID);
+        if (v == null) return;
+        int i = 0;
+        while (i < v.length && v[i] != s) i++;
+        if (i == v.length) return;
+        if (v.length == 1) { porDriver.remove(s.driverID); return; }
+        EVCentral.SesionInfo[] n = new EVCentral.SesionInfo[v.length - 1];
+        System.arraycopy(v, 0, n, 0, i);
+        System.arraycopy(v, i + 1, n, i, v.length - i - 1);
+        porDriver.put(s.driverID, n);
+    }
+
+    EVCentral.SesionInfo get(String sesId) { return sesId == null ? null : porId.get(sesId); }
+
+    // Sesión activa del CP (handle del registro) o null
+    EVCentral.SesionInfo deCp(int h) {
+        int v = h < 0 ? 0 : cps.ses(h);
+        if (v == 0) return null;
+        EVCentral.SesionInfo[] t = huecos;
+        EVCentral.SesionInfo s = v - 1 < t.length ? t[v - 1] : null;
+        // El hueco puede haberse liberado y reutilizado para otro CP entre las dos lecturas
+        return s != null && s.hueco == v - 1 && s.cpID.equalsIgnoreCase(cps.id(h)) ? s : null;
+    }
+
+    EVCentral.SesionInfo deCp(String cpID) { return cpID == null ? null : deCp(cps.handleOf(cpID)); }
+
+    String idDeCp(String cpID) {
+        EVCentral.SesionInfo s = deCp(cpID);
+        return s == null ? null : s.sesionID;
+    }
+
+    // Sesión más antigua del driver, o null
+    EVCentral.SesionInfo deDriver(String driverID) {
+        EVCentral.SesionInfo[] v = driverID == null ? null : porDriver.get(driverID);
+        return v == null ? null : v[0];
+    }
+
+    Collection<EVCentral.SesionInfo> todas() { return porId.values(); }
+
+    int size() { return porId.size(); }
+
+    private int reservarHueco(EVCentral.SesionInfo s) {
+        int i = nLibres > 0 ? libres[--nLibres] : usados++;
+        EVCentral.SesionInfo[] t = huecos;
+        if (i >= t.length) t = java.util.Arrays.copyOf(t, t.length * 2);
+        t[i] = s;
+        huecos = t;
+        return i;
+    }
+
+    private void liberarHueco(EVCentral.SesionInfo s) {
+        int i = s.hueco;
+        if (i < 0) return;
+        huecos[i] = null;
+        s.hueco = -1;
+        if (nLibres == libres.length) libres = java.util.Arrays.copyOf(libres, Math.max(16, nLibres * 2));
+        libres[nLibres++] = i;
+    }
+}
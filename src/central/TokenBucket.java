@@ -0,0 +1,41 @@
+package central;
+
+// Cubo de tokens para el ritmo de accept() del listener de CP: ratePerSec de media con ráfagas de
+// hasta burst. Para los que no caben, reserve() reparte el "vuelve en X ms" sobre la capacidad futura
+// (cada rechazo recibe el siguiente hueco libre) en vez de mandarlos a todos a la vez al mismo instante.
+final class TokenBucket {
+    private final double perMs;
+    private final double burst;
+    private final long maxDelayMs;
+    private double tokens;
+    private long last = System.nanoTime();
+    private double nextFree;   // ms (reloj de nanoTime) del siguiente hueco sin reservar
+
+    TokenBucket(double ratePerSec, double burst, long maxDelayMs) {
+        this.perMs = Math.max(0.001, ratePerSec / 1000.0);
+        this.burst = Math.max(1.0, burst);
+        this.maxDelayMs = maxDelayMs;
+        this.tokens = this.burst;
+    }
+
+    synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1.0) return false;
+        tokens -= 1.0;
+        return true;
+    }
+
+    // Milisegundos hasta el siguiente hueco libre (y lo deja reservado), con tope maxDelayMs
+    synchronized long reserve() {
+        refill();
+        double now = System.nanoTime() / 1e6;
+        nextFree = Math.max(nextFree, now + Math.max(0.0, (1.0 - tokens) / perMs)) + 1.0 / perMs;
+        return Math.min(maxDelayMs, (long) Math.ceil(nextFree - now));
+    }
+
+    private void refill() {
+        long t = System.nanoTime();
+        tokens = Math.min(burst, tokens + (t - last) / 1e6 * perMs);
+        last = t;
+    }
+}
@@ -0,0 +1,282 @@
+package common.bus;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+// Formato binario compacto para los mensajes conocidos del bus (v1).
+//
+//   MAGIC  VERSION  TYPE  NFIELDS  { KEY VALUE }*
+//
+//   TYPE / KEY : 1 byte con el índice en TYPES / KEYS; 0 => nombre libre a continuación (string)
+//                TYPE libre vacío = sin "type"; un "type":"" (o no primitivo) va como un campo más
+//   VALUE      : 1 byte de tag + datos
+//                  NULL | FALSE | TRUE
+//                  LONG   varint zigzag
+//                  DOUBLE 8 bytes big-endian
+//                  STR    varint longitud + UTF-8
+//                  B64    varint longitud + bytes en crudo (strings Base64 como el payload de ENC)
+//                  JSON   elemento anidado serializado como STR
+//
+// Las tablas TYPES y KEYS forman parte de la versión: solo se puede AÑADIR al final.
+// Cualquier cambio incompatible tiene que subir VERSION.
+final class BinaryCodec implements PayloadCodec {
+
+    static final byte MAGIC   = (byte) 0xEB;   // nunca es '{' ni un byte inicial válido de JSON
+    static final byte VERSION = 1;
+
+    static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private static final String[] TYPES = { null,
+            "TEL", "HB", "CMD", "AUTH", "SESSION_START", "SESSION_END", "WEATHER", "ENC",
+            "STOP_ACK", "WAITING_PLUG", "CHARGING_STARTED" };
+
+    private static final String[] KEYS = { null,
+            "ts", "cp", "session", "driver", "src", "cmd", "ok", "reason", "price",
+            "kwh", "eur", "power", "tempC", "alert", "loc", "payload" };
+
+    private static final Map<String,Integer> TYPE_IDX = index(TYPES);
+    private static final Map<String,Integer> KEY_IDX  = index(KEYS);
+
+    private static final int T_NULL = 0, T_FALSE = 1, T_TRUE = 2, T_LONG = 3, T_DOUBLE = 4,
+                             T_STR = 5, T_B64 = 6, T_JSON = 7;
+
+    private BinaryCodec() {}
+
+    @Override public String name() { return "binary"; }
+
+    @Override
+    public byte[] encode(JsonObject payload) {
+        Out out = new Out(64);
+        out.put(MAGIC);
+        out.put(VERSION);
+
+        JsonElement te = payload.get("type");
+        String type = (te != null && te.isJsonPrimitive()) ? te.getAsString() : null;
+        if (type != null && type.isEmpty()) type = null;   // "" no cabe en la cabecera: se escribe como campo
+        writeName(out, type, TYPE_IDX);
+
+        int n = payload.size() - (type != null ? 1 : 0);
+        out.varint(n);
+        for (Map.Entry<String, JsonElement> e : payload.entrySet()) {
+            String k = e.getKey();
+            if (type != null && "type".equals(k)) continue;
+            writeName(out, k, KEY_IDX);
+            writeValue(out, k, e.getValue());
+        }
+        return out.toBytes();
+    }
+
+    JsonObject decode(byte[] data) {
+        In in = new In(data);
+        if (in.get() != MAGIC) throw new IllegalArgumentException("no es binario");
+        int v = in.get();
+        if (v != VERSION) throw new IllegalArgumentException("versión binaria no soportada: " + v);
+
+        JsonObject o = new JsonObject();
+        String type = readName(in, TYPES);
+        if (!type.isEmpty()) o.addProperty("type", type);
+
+        int n = in.varint();
+        for (int i = 0; i < n; i++) {
+            String k = readName(in, KEYS);   // "" es una clave válida
+            o.add(k, readValue(in));
+        }
+        return o;
+    }
+
+    // ---------- escritura ----------
+
+    private static void writeName(Out out, String name, Map<String,Integer> idx) {
+        Integer i = (name != null) ? idx.get(name) : null;
+        if (i != null) {
+            out.put((byte) (int) i);
+        } else {
+            out.put((byte) 0);
+            out.str(name != null ? name : "");
+        }
+    }
+
+    private static void writeValue(Out out, String key, JsonElement v) {
+        if (v == null || v.isJsonNull()) { out.put((byte) T_NULL); return; }
+        if (!v.isJsonPrimitive()) {
+            out.put((byte) T_JSON);
+            out.str(v.toString());
+            return;
+        }
+        JsonPrimitive p = v.getAsJsonPrimitive();
+        if (p.isBoolean()) {
+            out.put((byte) (p.getAsBoolean() ? T_TRUE : T_FALSE));
+        } else if (p.isNumber()) {
+            Number num = p.getAsNumber();
+            if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
+                out.put((byte) T_LONG);
+                out.varlong(num.longValue());
+            } else if (num instanceof Double || num instanceof Float) {
+                out.put((byte) T_DOUBLE);
+                out.putDouble(num.doubleValue());
+            } else {
+                // número leído de JSON (LazilyParsedNumber): entero si su texto lo es
+                String txt = p.getAsString();
+                if (!digits(txt)) {
+                    out.put((byte) T_DOUBLE);
+                    out.putDouble(num.doubleValue());
+                } else {
+                    try {
+                        long l = Long.parseLong(txt);
+                        out.put((byte) T_LONG);
+                        out.varlong(l);
+                    } catch (NumberFormatException tooBig) {
+                        // entero que no cabe en un long: lo guardamos como texto para no perder precisión
+                        out.put((byte) T_JSON);
+                        out.str(txt);
+                    }
+                }
+            }
+        } else {
+            String s = p.getAsString();
+            byte[] raw = "payload".equals(key) ? base64(s) : null;
+            if (raw != null) {
+                out.put((byte) T_B64);
+                out.varint(raw.length);
+                out.put(raw);
+            } else {
+                out.put((byte) T_STR);
+                out.str(s);
+            }
+        }
+    }
+
+    private static boolean digits(String txt) {
+        if (txt.isEmpty()) return false;
+        for (int i = 0; i < txt.length(); i++) {
+            char c = txt.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(i == 0 && c == '-' && txt.length() > 1)) return false;
+        }
+        return true;
+    }
+
+    // Solo si el string es Base64 canónico (vuelve a dar exactamente lo mismo al recodificar)
+    private static byte[] base64(String s) {
+        try {
+            byte[] raw = Base64.getDecoder().decode(s);
+            return Base64.getEncoder().encodeToString(raw).equals(s) ? raw : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // ---------- lectura ----------
+
+    private static String readName(In in, String[] table) {
+        int i = in.get() & 0xFF;
+        if (i != 0) {
+            if (i >= table.length) throw new IllegalArgumentException("índice desconocido " + i);
+            return table[i];
+        }
+        return in.str();
+    }
+
+    private static JsonElement readValue(In in) {
+        int tag = in.get();
+        return switch (tag) {
+            case T_NULL   -> JsonNull.INSTANCE;
+            case T_FALSE  -> new JsonPrimitive(false);
+            case T_TRUE   -> new JsonPrimitive(true);
+            case T_LONG   -> new JsonPrimitive(in.varlong());
+            case T_DOUBLE -> new JsonPrimitive(in.getDouble());
+            case T_STR    -> new JsonPrimitive(in.str());
+            case T_B64    -> new JsonPrimitive(Base64.getEncoder().encodeToString(in.bytes(in.varint())));
+            case T_JSON   -> JsonParser.parseString(in.str());
+            default       -> throw new IllegalArgumentException("tag desconocido " + tag);
+        };
+    }
+
+    private static Map<String,Integer> index(String[] table) {
+        Map<String,Integer> m = new HashMap<>();
+        for (int i = 1; i < table.length; i++) m.put(table[i], i);
+        return m;
+    }
+
+    // ---------- buffers mínimos ----------
+
+    private static final class Out {
+        private byte[] buf;
+        private int pos;
+
+        Out(int cap) { buf = new byte[cap]; }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+        void put(byte b) { ensure(1); buf[pos++] = b; }
+        void put(byte[] b) { ensure(b.length); System.arraycopy(b, 0, buf, pos, b.length); pos += b.length; }
+        void varint(int v) { uvarlong(v & 0xFFFFFFFFL); }
+        void varlong(long v) { uvarlong((v << 1) ^ (v >> 63)); }   // zigzag
+        private void uvarlong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) { buf[pos++] = (byte) ((v & 0x7F) | 0x80); v >>>= 7; }
+            buf[pos++] = (byte) v;
+        }
+        void putDouble(double d) {
+            long b = Double.doubleToRawLongBits(d);
+            ensure(8);
+            for (int i = 7; i >= 0; i--) buf[pos++] = (byte) (b >>> (i * 8));
+        }
+        void str(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            put(b);
+        }
+        byte[] toBytes() { return Arrays.copyOf(buf, pos); }
+    }
+
+    private static final class In {
+        private final byte[] buf;
+        private int pos;
+
+        In(byte[] b) { buf = b; }
+
+        byte get() {
+            if (pos >= buf.length) throw new IllegalArgumentException("binario truncado");
+            return buf[pos++];
+        }
+        int varint() { return (int) rawVarlong(); }
+        long varlong() { long v = rawVarlong(); return (v >>> 1) ^ -(v & 1); }
+        private long rawVarlong() {
+            long v = 0; int shift = 0;
+            while (true) {
+                byte b = get();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+                shift += 7;
+                if (shift > 63) throw new IllegalArgumentException("varint demasiado largo");
+            }
+        }
+        double getDouble() {
+            long b = 0;
+            for (int i = 0; i < 8; i++) b = (b << 8) | (get() & 0xFF);
+            return Double.longBitsToDouble(b);
+        }
+        byte[] bytes(int n) {
+            if (n < 0 || pos + n > buf.length) throw new IllegalArgumentException("binario truncado");
+            byte[] b = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return b;
+        }
+        String str() {
+            int n = varint();
+            if (n < 0 || pos + n > buf.length) throw new IllegalArgumentException("binario truncado");
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package common.bus;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.nio.charset.StandardCharsets;
+
+// Cabeceras de enrutado de un mensaje del bus: type, src, cp y enc ("1" si el payload es un sobre ENC).
+// Las pone el publicador a partir del propio payload y permiten filtrar (RecordFilter) antes de
+// decodificar nada. Las comparaciones se hacen sobre los bytes, sin crear Strings.
+public interface BusHeaders {
+
+    String TYPE = "type", SRC = "src", CP = "cp", ENC = "enc";
+    String[] ROUTING = { TYPE, SRC, CP };
+
+    boolean has(String name);
+    boolean is(String name, String value);
+
+    // ---------- Kafka ----------
+
+    static Headers toKafka(JsonObject payload) {
+        RecordHeaders hs = new RecordHeaders();
+        for (String name : ROUTING) {
+            JsonElement e = payload.get(name);
+            if (e != null && e.isJsonPrimitive()) hs.add(name, e.getAsString().getBytes(StandardCharsets.UTF_8));
+        }
+        JsonElement t = payload.get(TYPE);
+        if (t != null && t.isJsonPrimitive() && "ENC".equals(t.getAsString())) {
+            hs.add(ENC, new byte[] { '1' });
+        }
+        return hs;
+    }
+
+    // Vista reutilizable sobre las cabeceras de un ConsumerRecord (una por hilo de poller)
+    final class KafkaView implements BusHeaders {
+        private Headers headers;
+
+        KafkaView wrap(Headers h) { this.headers = h; return this; }
+
+        @Override
+        public boolean has(String name) {
+            return headers != null && headers.lastHeader(name) != null;
+        }
+
+        @Override
+        public boolean is(String name, String value) {
+            if (headers == null) return false;
+            Header h = headers.lastHeader(name);
+            return h != null && equalsAscii(h.value(), value);
+        }
+    }
+
+    // ---------- Bus en memoria: las "cabeceras" se leen del propio payload ----------
+
+    final class JsonView implements BusHeaders {
+        private JsonObject payload;
+
+        JsonView wrap(JsonObject p) { this.payload = p; return this; }
+
+        @Override
+        public boolean has(String name) {
+            if (ENC.equals(name)) return is(TYPE, "ENC");
+            JsonElement e = payload != null ? payload.get(name) : null;
+            return e != null && e.isJsonPrimitive();
+        }
+
+        @Override
+        public boolean is(String name, String value) {
+            if (payload == null) return false;
+            if (ENC.equals(name)) return "1".equals(value) && is(TYPE, "ENC");
+            JsonElement e = payload.get(name);
+            return e != null && e.isJsonPrimitive() && value.equals(e.getAsString());
+        }
+    }
+
+    // Compara UTF-8 con un String sin decodificar (los valores de enrutado son ASCII; si no lo son,
+    // caemos a la comparación normal)
+    private static boolean equalsAscii(byte[] b, String s) {
+        if (b == null) return false;
+        int n = s.length();
+        if (b.length != n) {
+            return b.length > n && new String(b, StandardCharsets.UTF_8).equals(s);
+        }
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c > 0x7F) return new String(b, StandardCharsets.UTF_8).equals(s);
+            if (b[i] != (byte) c) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package common.bus;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Particionado estable por clave (CP id, driver id...): murmur2 sobre los bytes UTF-8 de la clave,
+// el mismo hash que usa Kafka por defecto. Lo tenemos aquí para que el consumidor pueda calcular
+// a qué partición va "su" clave sin depender de detalles internos del cliente (ver partitionFor).
+public final class CpPartitioner implements Partitioner {
+
+    public static int partitionFor(String key, int numPartitions) {
+        if (numPartitions <= 1) return 0;
+        byte[] kb = key.getBytes(StandardCharsets.UTF_8);
+        return Utils.toPositive(Utils.murmur2(kb)) % numPartitions;
+    }
+
+    @Override
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        int n = cluster.partitionCountForTopic(topic);
+        if (n <= 1) return 0;
+        // Sin clave no hay orden que mantener: cualquier partición
+        if (keyBytes == null) return ThreadLocalRandom.current().nextInt(n);
+        return Utils.toPositive(Utils.murmur2(keyBytes)) % n;
+    }
+
+    @Override public void configure(Map<String, ?> configs) {}
+    @Override public void close() {}
+}
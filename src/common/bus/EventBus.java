@@ -1,10 +1,44 @@
 package common.bus;
 
 import com.google.gson.JsonObject;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public interface EventBus extends AutoCloseable {
     void publish(String topic, String key, JsonObject payload);
     void subscribe(String topic, Consumer<JsonObject> handler);
+
+    // Suscripción con opciones (p.ej. reparto en paralelo por clave). Si la implementación
+    // no las soporta, se comporta como subscribe() normal.
+    default void subscribe(String topic, Consumer<JsonObject> handler, SubscribeOptions opts) {
+        subscribe(topic, handler);
+    }
+
+    // Publicación sin bloquear al llamante: el future se completa cuando el broker confirma
+    // (o con excepción si falla). Por defecto delega en publish() síncrono.
+    default CompletableFuture<Void> publishAsync(String topic, String key, JsonObject payload) {
+        publish(topic, key, payload);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // Crea el topic si aún no existe (para topics con nombre dinámico, p.ej. uno por driver).
+    // Sin efecto en buses sin broker.
+    default void ensureTopic(String topic) {}
+
+    // Topic propio de una clave: base + "." + clave, con lo que Kafka no admite en un nombre cambiado por '_'
+    static String topicFor(String base, String key) {
+        StringBuilder sb = new StringBuilder(base.length() + 1 + key.length()).append(base).append('.');
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                      || c == '.' || c == '_' || c == '-';
+            sb.append(ok ? c : '_');
+        }
+        return sb.length() > 249 ? sb.substring(0, 249) : sb.toString();
+    }
+
+    // Métricas del bus (profundidad de colas, pausas, ...) para exponerlas por HTTP
+    default JsonObject metrics() { return new JsonObject(); }
+
     @Override default void close() throws Exception {}
 }
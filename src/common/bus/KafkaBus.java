@@ -1,65 +1,62 @@
 package common.bus;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.*;
 import org.apache.kafka.clients.producer.*;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 public final class KafkaBus implements EventBus {
     private final boolean debug;
-    private final Producer<String,String> producer;
-    private final KafkaConsumer<String,String> consumer;
+    private final Producer<String,byte[]> producer;
+    private final PayloadCodec codec;
+    private final Properties cfg;
+    private final Outbox outbox;          // null = envío directo al productor
+    private final long outboxWaitMs;      // outbox lleno: cuánto espera publish antes de fallar
+    private final Set<String> knownTopics = ConcurrentHashMap.newKeySet();
+    private AdminClient admin;            // perezoso, solo para ensureTopic
+    private final Map<String, Long> failedTopics = new ConcurrentHashMap<>();   // topic -> no reintentar antes de
+    private static final long TOPIC_RETRY_MS = 30_000L;
 
-    private final Map<String, Consumer<JsonObject>> handlers = new ConcurrentHashMap<>();
+    // Suscripción: handler + (opcional) dispatcher por clave
+    private record Sub(Consumer<JsonObject> handler, KeyedDispatcher dispatcher, TopicFlow flow,
+                       String routeKey, RecordFilter filter, RecordFilter shed) {}
 
-    private final AtomicBoolean running = new AtomicBoolean(true);
-    private final AtomicBoolean needsSubscribe = new AtomicBoolean(false);
-    private volatile boolean subscribed = false;
+    // Un poller (consumer + hilo + offsets) por carril. FAST se crea siempre; BULK solo si alguien
+    // se suscribe en ese carril, así engine/driver siguen con un único consumer.
+    private final Map<SubscribeOptions.Lane, LanePoller> lanes = new EnumMap<>(SubscribeOptions.Lane.class);
 
-    private final Thread poller;
+    private final AtomicBoolean running = new AtomicBoolean(true);
 
     private KafkaBus(Properties p, boolean debug) {
         this.debug = debug;
+        this.cfg   = p;
 
-        Properties prod = new Properties();
-        prod.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, required(p,"kafka.bootstrapServers"));
-        prod.put(ProducerConfig.CLIENT_ID_CONFIG,          p.getProperty("kafka.clientId","ev-app"));
-        prod.put(ProducerConfig.ACKS_CONFIG,               "all");
-        prod.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
-        prod.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
-        prod.put(ProducerConfig.LINGER_MS_CONFIG,          "0");
-        prod.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,   StringSerializer.class.getName());
-        prod.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        this.producer = new KafkaProducer<>(prod);
-
-        Properties cons = new Properties();
-        cons.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,  required(p,"kafka.bootstrapServers"));
-        cons.put(ConsumerConfig.GROUP_ID_CONFIG,           required(p,"kafka.groupId"));
-        cons.put(ConsumerConfig.CLIENT_ID_CONFIG,          p.getProperty("kafka.clientId","ev-app") + "-c");
-        cons.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,   StringDeserializer.class.getName());
-        cons.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        cons.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "true");
-        cons.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG,  p.getProperty("kafka.autoOffsetReset","earliest"));
-        this.consumer = new KafkaConsumer<>(cons);
+        this.codec    = PayloadCodec.from(p);
+        this.producer = new KafkaProducer<>(producerProps(p));
+        this.outbox   = openOutbox(p, producer);
+        this.outboxWaitMs = Math.max(0, parseIntOr(p.getProperty("kafka.outbox.fullWaitMs"), 5000));
 
-        // Hilo del poller
-        this.poller = new Thread(this::pollLoop, "kafka-poller");
-        this.poller.setDaemon(true);
-        this.poller.start();
+        lanes.put(SubscribeOptions.Lane.FAST, new LanePoller(SubscribeOptions.Lane.FAST));
     }
 
     public static EventBus from(Properties p) {
+        // bus.impl=memory -> bus en la propia JVM (sin broker), compartido por todos los componentes
+        if ("memory".equalsIgnoreCase(p.getProperty("bus.impl","").trim())) return MemoryBus.shared(p);
+
         boolean enabled = Boolean.parseBoolean(p.getProperty("kafka.enabled","false"));
         boolean debug   = Boolean.parseBoolean(p.getProperty("kafka.debug","false"));
         if (!enabled) return new NoBus();
@@ -71,12 +68,15 @@ public final class KafkaBus implements EventBus {
         if (Boolean.parseBoolean(p.getProperty("kafka.autoCreateTopics","true"))) {
             try (AdminClient admin = AdminClient.create(Map.of("bootstrap.servers", required(p,"kafka.bootstrapServers")))) {
                 String init = p.getProperty("kafka.topics.init","");
+                // Con varias particiones los consumidores por clave (engine) solo leen la suya
+                int partitions = Math.max(1, parseIntOr(p.getProperty("kafka.topics.partitions"), 1));
+                short replicas = (short) Math.max(1, parseIntOr(p.getProperty("kafka.topics.replication"), 1));
                 if (init != null && !init.isBlank()) {
                     Set<String> existing = admin.listTopics().names().get();
                     List<NewTopic> toCreate = new ArrayList<>();
                     for (String t : init.split(",")) {
                         String tt = t.trim();
-                        if (!tt.isEmpty() && !existing.contains(tt)) toCreate.add(new NewTopic(tt,1,(short)1));
+                        if (!tt.isEmpty() && !existing.contains(tt)) toCreate.add(new NewTopic(tt,partitions,replicas));
                     }
                     if (!toCreate.isEmpty()) {
                         admin.createTopics(toCreate).all().get();
@@ -91,75 +91,436 @@ public final class KafkaBus implements EventBus {
         return new KafkaBus(p, debug);
     }
 
+    // Perfil del productor. "latency" (por defecto) envía cada mensaje en cuanto llega;
+    // "throughput" agrupa en lotes con algo de linger y compresión (gzip: viene con el JDK; lz4/snappy/zstd
+    // necesitan su JAR en lib/). Cualquier valor se puede sobreescribir con kafka.producer.* . El orden por clave se mantiene siempre: con
+    // idempotencia activa Kafka garantiza el orden por partición con hasta 5 peticiones en vuelo.
+    private static Properties producerProps(Properties p) {
+        String profile = p.getProperty("kafka.producer.profile","latency").trim().toLowerCase(Locale.ROOT);
+        boolean throughput = "throughput".equals(profile);
+
+        int lingerMs    = parseIntOr(p.getProperty("kafka.producer.lingerMs"),   throughput ? 5 : 0);
+        int batchSize   = parseIntOr(p.getProperty("kafka.producer.batchSize"),  throughput ? 64 * 1024 : 16 * 1024);
+        int maxInFlight = parseIntOr(p.getProperty("kafka.producer.maxInFlight"), 5);
+        String compression = p.getProperty("kafka.producer.compression", throughput ? "gzip" : "none").trim();
+
+        // Con idempotencia Kafka rechaza más de 5 en vuelo
+        if (maxInFlight < 1) maxInFlight = 1;
+        if (maxInFlight > 5) maxInFlight = 5;
+
+        Properties prod = new Properties();
+        prod.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, required(p,"kafka.bootstrapServers"));
+        prod.put(ProducerConfig.CLIENT_ID_CONFIG,          p.getProperty("kafka.clientId","ev-app"));
+        prod.put(ProducerConfig.ACKS_CONFIG,               "all");
+        prod.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        prod.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, String.valueOf(maxInFlight));
+        prod.put(ProducerConfig.LINGER_MS_CONFIG,          String.valueOf(lingerMs));
+        prod.put(ProducerConfig.BATCH_SIZE_CONFIG,         String.valueOf(batchSize));
+        prod.put(ProducerConfig.COMPRESSION_TYPE_CONFIG,   compression);
+        prod.put(ProducerConfig.PARTITIONER_CLASS_CONFIG,  CpPartitioner.class.getName());
+        prod.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,   StringSerializer.class.getName());
+        prod.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+
+        System.out.println("[BUS] Productor perfil=" + profile + " linger=" + lingerMs + "ms batch=" + batchSize
+                + " inFlight=" + maxInFlight + " compression=" + compression);
+        return prod;
+    }
+
+    // kafka.outbox.enabled=true -> publish() escribe en un log local mapeado en memoria y un hilo lo
+    // vacía hacia Kafka en orden; lo pendiente se reenvía tras reiniciar (ver Outbox)
+    private static Outbox openOutbox(Properties p, Producer<String,byte[]> producer) {
+        if (!Boolean.parseBoolean(p.getProperty("kafka.outbox.enabled","false").trim())) return null;
+        String file = p.getProperty("kafka.outbox.file","data/outbox-" + p.getProperty("kafka.clientId","ev-app") + ".log").trim();
+        long sizeMb = Math.max(1, parseIntOr(p.getProperty("kafka.outbox.sizeMb"), 64));
+        long syncMs = parseIntOr(p.getProperty("kafka.outbox.syncMs"), 1000);
+        long bytes  = sizeMb * 1024L * 1024L;
+        if (bytes > Outbox.MAX_CAPACITY) {
+            throw new IllegalArgumentException("kafka.outbox.sizeMb=" + sizeMb + " no cabe en un fichero mapeado (máx "
+                    + Outbox.MAX_CAPACITY / (1024 * 1024) + ")");
+        }
+        return Outbox.open(java.nio.file.Path.of(file), bytes, syncMs, producer);
+    }
+
+    // Mismo grupo para todos los carriles: cada consumer solo se suscribe a los topics de su carril
+    private static Properties consumerProps(Properties p, String suffix) {
+        Properties cons = new Properties();
+        cons.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,  required(p,"kafka.bootstrapServers"));
+        cons.put(ConsumerConfig.GROUP_ID_CONFIG,           required(p,"kafka.groupId"));
+        cons.put(ConsumerConfig.CLIENT_ID_CONFIG,          p.getProperty("kafka.clientId","ev-app") + "-c" + suffix);
+        cons.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,   StringDeserializer.class.getName());
+        // Valor en bytes: el formato (JSON o binario) se detecta al leer, ver PayloadCodec
+        cons.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        // Commit manual: solo confirmamos offsets ya procesados por su handler (at-least-once)
+        cons.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        cons.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG,  p.getProperty("kafka.autoOffsetReset","earliest"));
+        return cons;
+    }
+
     @Override
     public void publish(String topic, String key, JsonObject payload) {
-        String value = payload.toString();
-        if (debug) System.out.println("[BUS→KAFKA] topic=" + topic + " key=" + key + " value=" + value);
-        try { producer.send(new ProducerRecord<>(topic, key, value)).get(); }
-        catch (Exception e) { System.err.println("[BUS] ERROR publish: " + e.getMessage()); }
+        try { publishAsync(topic, key, payload).get(); }
+        catch (Exception e) { /* ya registrado en el callback */ }
     }
 
     @Override
-    public void subscribe(String topic, Consumer<JsonObject> handler) {
-        handlers.put(topic, handler);
-        needsSubscribe.set(true);       // ← NO tocamos el consumer aquí
-        if (debug) System.out.println("[BUS] subscribe requested: " + handlers.keySet());
+    public CompletableFuture<Void> publishAsync(String topic, String key, JsonObject payload) {
+        byte[] value = codec.encode(payload);
+        if (debug) System.out.println("[BUS→KAFKA] topic=" + topic + " key=" + key + " codec=" + codec.name() + " value=" + payload);
+        // Cabeceras de enrutado (type/src/cp/enc) para que los consumidores filtren sin decodificar
+        org.apache.kafka.common.header.Headers headers = BusHeaders.toKafka(payload);
+        if (outbox != null) {
+            // Con outbox el mensaje queda a salvo en disco local: no esperamos al broker. Si está lleno
+            // se espera (acotado) a que se vacíe; nunca se envía directo, eso adelantaría el mensaje a lo
+            // pendiente y lo dejaría fuera del log
+            if (outbox.append(topic, key, value, headers, outboxWaitMs)) return CompletableFuture.completedFuture(null);
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("outbox lleno: publicación rechazada tras " + outboxWaitMs + "ms topic=" + topic));
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            ProducerRecord<String,byte[]> rec = new ProducerRecord<>(topic, null, key, value, headers);
+            producer.send(rec, (meta, err) -> {
+                if (err == null) {
+                    done.complete(null);
+                } else {
+                    System.err.println("[BUS] ERROR publish: " + err.getMessage());
+                    done.completeExceptionally(err);
+                }
+            });
+        } catch (Exception e) {
+            // send() puede lanzar de forma síncrona (buffer lleno, serialización, productor cerrado)
+            System.err.println("[BUS] ERROR publish: " + e.getMessage());
+            done.completeExceptionally(e);
+        }
+        return done;
     }
 
-    private void pollLoop() {
+    // Una llamada al broker la primera vez por topic; luego solo mira la caché. Si la creación falla
+    // (broker caído, sin permisos, timeout) no se vuelve a intentar hasta TOPIC_RETRY_MS después: quien
+    // llame mientras tanto no se queda otros 10 s esperando al AdminClient.
+    @Override
+    public void ensureTopic(String topic) {
+        if (knownTopics.contains(topic)) return;
+        Long retryAt = failedTopics.get(topic);
+        if (retryAt != null && System.currentTimeMillis() < retryAt) return;
+        if (!Boolean.parseBoolean(cfg.getProperty("kafka.autoCreateTopics","true"))) { knownTopics.add(topic); return; }
+        short replicas = (short) Math.max(1, parseIntOr(cfg.getProperty("kafka.topics.replication"), 1));
         try {
-            while (running.get()) {
-                // Aplicar (re)subscripciones SOLO desde este hilo
-                if (needsSubscribe.getAndSet(false)) {
-                    Set<String> topics = new HashSet<>(handlers.keySet());
-                    if (!topics.isEmpty()) {
-                        consumer.subscribe(topics);
-                        subscribed = true;
-                        System.out.println("[BUS] Subscribed topics: " + topics);
-                    } else {
-                        // Si se quitaran todos (no es tu caso), marcar no-subscrito
-                        subscribed = false;
+            AdminClient a;
+            synchronized (knownTopics) {
+                if (admin == null) admin = AdminClient.create(Map.of("bootstrap.servers", required(cfg,"kafka.bootstrapServers")));
+                a = admin;
+            }
+            a.createTopics(List.of(new NewTopic(topic, 1, replicas))).all().get(10, java.util.concurrent.TimeUnit.SECONDS);
+            System.out.println("[BUS] Topic creado: " + topic);
+            knownTopics.add(topic);
+            failedTopics.remove(topic);
+        } catch (java.util.concurrent.ExecutionException e) {
+            if (e.getCause() instanceof org.apache.kafka.common.errors.TopicExistsException) {
+                knownTopics.add(topic);
+                failedTopics.remove(topic);
+            } else {
+                topicFailed(topic, e.getCause().getMessage());
+            }
+        } catch (Exception e) {
+            topicFailed(topic, e.getMessage());
+        }
+    }
+
+    private void topicFailed(String topic, String why) {
+        failedTopics.put(topic, System.currentTimeMillis() + TOPIC_RETRY_MS);
+        System.out.println("[BUS] WARN creando topic " + topic + " (no se reintenta en " + TOPIC_RETRY_MS / 1000 + " s): " + why);
+    }
+
+    @Override
+    public void subscribe(String topic, Consumer<JsonObject> handler) {
+        subscribe(topic, handler, SubscribeOptions.INLINE);
+    }
+
+    @Override
+    public void subscribe(String topic, Consumer<JsonObject> handler, SubscribeOptions opts) {
+        KeyedDispatcher d = opts.inline() ? null : new KeyedDispatcher("bus-" + topic, opts.workers());
+        TopicFlow flow = new TopicFlow(topic, opts.inline() ? 0 : opts.queueCapacity(), opts.shed() != null);
+        Sub sub = new Sub(handler, d, flow, opts.routeKey(), opts.filter(), opts.shed());
+        LanePoller target;
+        synchronized (lanes) {
+            target = lanes.computeIfAbsent(opts.lane(), LanePoller::new);
+            // Un topic vive en un solo carril: si cambia, lo quitamos del anterior
+            for (LanePoller lp : lanes.values()) {
+                if (lp != target && lp.handlers.remove(topic) != null) lp.needsSubscribe.set(true);
+            }
+        }
+        target.add(topic, sub);
+    }
+
+    // Consumer + hilo de poll + offsets de un carril. Todo lo que toca el consumer se hace
+    // desde su propio hilo (KafkaConsumer no es thread-safe).
+    private final class LanePoller {
+        final SubscribeOptions.Lane lane;
+        final KafkaConsumer<String,byte[]> consumer;
+        final Map<String, Sub> handlers = new ConcurrentHashMap<>();
+        final AtomicBoolean needsSubscribe = new AtomicBoolean(false);
+        volatile boolean subscribed = false;
+        boolean manual = false;             // consumer en assign (true) o en subscribe de grupo (false)
+        final OffsetCommitter offsets;
+        final BusHeaders.KafkaView headerView = new BusHeaders.KafkaView();   // solo este poller
+        final Thread thread;
+
+        LanePoller(SubscribeOptions.Lane lane) {
+            this.lane = lane;
+            String suffix = lane == SubscribeOptions.Lane.FAST ? "" : "-" + lane.name().toLowerCase(Locale.ROOT);
+            this.consumer = new KafkaConsumer<>(consumerProps(cfg, suffix));
+            this.offsets  = new OffsetCommitter(parseIntOr(cfg.getProperty("kafka.commit.batchSize"), 500),
+                                                parseIntOr(cfg.getProperty("kafka.commit.intervalMs"), 1000));
+            this.thread = new Thread(this::pollLoop, "kafka-poller" + suffix);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        void add(String topic, Sub sub) {
+            Sub old = handlers.put(topic, sub);
+            if (old != null && old.dispatcher() != null) old.dispatcher().close(1000);
+            needsSubscribe.set(true);       // ← NO tocamos el consumer aquí
+            if (debug) System.out.println("[BUS] subscribe requested lane=" + lane + ": " + handlers.keySet());
+        }
+
+        private void pollLoop() {
+            try {
+                while (running.get()) {
+                    // Aplicar (re)subscripciones SOLO desde este hilo
+                    if (needsSubscribe.getAndSet(false)) {
+                        Set<String> topics = new HashSet<>(handlers.keySet());
+                        if (!topics.isEmpty() && routed()) {
+                            if (assignRouted()) {
+                                subscribed = true;
+                            } else {
+                                // metadata aún no disponible (topic sin crear): reintento
+                                needsSubscribe.set(true);
+                                try { Thread.sleep(500); } catch (InterruptedException ignore) {}
+                                continue;
+                            }
+                        } else if (!topics.isEmpty()) {
+                            if (manual) leaveManual();
+                            consumer.subscribe(topics, rebalanceListener());
+                            subscribed = true;
+                            System.out.println("[BUS] Subscribed topics lane=" + lane + ": " + topics);
+                        } else {
+                            // Topic movido a otro carril y este se queda sin nada
+                            if (subscribed) {
+                                if (manual) leaveManual();
+                                else consumer.unsubscribe();
+                            }
+                            subscribed = false;
+                        }
                     }
+
+                    if (!subscribed) {
+                        // Aún no hay topics: no llames a poll() o Kafka lanza excepción
+                        try { Thread.sleep(50); } catch (InterruptedException ignore) {}
+                        continue;
+                    }
+
+                    offsets.maybeCommit(consumer);
+                    boolean anyPaused = applyBackpressure();
+
+                    // Si hay algo pausado, volvemos pronto para poder reanudar en cuanto baje la cola
+                    ConsumerRecords<String,byte[]> recs = consumer.poll(Duration.ofMillis(anyPaused ? 50 : 250));
+                    if (recs.isEmpty()) continue;
+
+                    for (ConsumerRecord<String,byte[]> r : recs) {
+                        if (debug) System.out.println("[BUS←KAFKA] topic=" + r.topic() + " key=" + r.key() + " value=" + PayloadCodec.describe(r.value()));
+                        Sub sub = handlers.get(r.topic());
+                        if (sub == null) { offsets.skip(r); continue; }
+                        if ((sub.routeKey() != null && !sub.routeKey().equals(r.key()))
+                                || (sub.filter() != null && !sub.filter().accept(r.key(), headerView.wrap(r.headers())))) {
+                            // Otro destinatario o no interesa: fuera sin decodificar
+                            sub.flow().skipped();
+                            offsets.skip(r);
+                            continue;
+                        }
+                        TopicFlow flow = sub.flow();
+                        if (flow.overloaded() && sub.shed().accept(r.key(), headerView.wrap(r.headers()))) {
+                            // Sobrecarga en BULK: tiramos lo prescindible (p.ej. TEL, el siguiente trae
+                            // los acumulados) y dejamos pasar lo que no se puede perder (WEATHER)
+                            flow.shed();
+                            offsets.skip(r);
+                            continue;
+                        }
+                        OffsetCommitter.Tracker tr = offsets.track(r);
+                        if (sub.dispatcher() == null) {
+                            try { deliver(sub.handler(), r); }
+                            finally { offsets.complete(tr, r.offset()); }
+                        } else {
+                            // El parseo también se hace en el worker: el poller solo reparte
+                            flow.enqueued();
+                            sub.dispatcher().submit(r.key(), r.partition(), () -> {
+                                try { deliver(sub.handler(), r); }
+                                finally { flow.done(); offsets.complete(tr, r.offset()); }
+                            });
+                        }
+                    }
+                }
+            } catch (WakeupException we) {
+                // cierre
+            } catch (Exception e) {
+                if (running.get()) System.err.println("[BUS] pollLoop error lane=" + lane + ": " + e.getMessage());
+            } finally {
+                // Terminamos lo que ya estaba en los workers y confirmamos hasta donde se llegó
+                for (Sub sub : handlers.values()) {
+                    if (sub.dispatcher() != null) sub.dispatcher().close(2000);
                 }
+                try { offsets.commitSync(consumer, offsets.partitions()); } catch (Exception ignore) {}
+                try { consumer.close(); } catch (Exception ignore) {}
+            }
+        }
+
+        private boolean routed() {
+            for (Sub sub : handlers.values()) if (sub.routeKey() != null) return true;
+            return false;
+        }
 
-                if (!subscribed) {
-                    // Aún no hay topics: no llames a poll() o Kafka lanza excepción
-                    try { Thread.sleep(50); } catch (InterruptedException ignore) {}
-                    continue;
+        // Modo asignación manual: en cuanto una suscripción lleva routeKey el consumer deja el grupo
+        // (subscribe y assign no se pueden mezclar). Los topics con routeKey leen solo la partición de
+        // su clave; el resto, todas sus particiones.
+        private boolean assignRouted() {
+            List<TopicPartition> parts = new ArrayList<>();
+            for (Map.Entry<String, Sub> e : handlers.entrySet()) {
+                String topic = e.getKey();
+                List<org.apache.kafka.common.PartitionInfo> infos = consumer.partitionsFor(topic);
+                if (infos == null || infos.isEmpty()) {
+                    System.out.println("[BUS] Sin metadata para " + topic + ", reintentando asignación");
+                    return false;
+                }
+                String rk = e.getValue().routeKey();
+                if (rk != null) {
+                    parts.add(new TopicPartition(topic, CpPartitioner.partitionFor(rk, infos.size())));
+                } else {
+                    for (var pi : infos) parts.add(new TopicPartition(topic, pi.partition()));
                 }
+            }
+            // subscribe -> assign sin unsubscribe() entre medias lanza IllegalStateException y tumba el carril.
+            // unsubscribe() deja el grupo y el listener confirma lo procesado de las particiones revocadas.
+            if (subscribed && !manual) consumer.unsubscribe();
+            consumer.assign(parts);
+            manual = true;
+            System.out.println("[BUS] Asignación manual lane=" + lane + ": " + parts);
+            return true;
+        }
 
-                ConsumerRecords<String,String> recs = consumer.poll(Duration.ofMillis(250));
-                if (recs.isEmpty()) continue;
-
-                for (ConsumerRecord<String,String> r : recs) {
-                    if (debug) System.out.println("[BUS←KAFKA] topic=" + r.topic() + " key=" + r.key() + " value=" + r.value());
-                    Consumer<JsonObject> h = handlers.get(r.topic());
-                    if (h == null) continue;
-                    try {
-                        JsonObject jo = JsonParser.parseString(r.value()).getAsJsonObject();
-                        h.accept(jo);
-                    } catch (Exception parse) {
-                        System.err.println("[BUS] ERROR parse: " + parse.getMessage() + " value=" + r.value());
-                    }
+        // Vuelta de assign a subscribe (ya no queda ninguna suscripción con routeKey): confirmamos lo
+        // procesado de las particiones asignadas a mano y las soltamos antes de entrar en el grupo.
+        private void leaveManual() {
+            Set<TopicPartition> parts = consumer.assignment();
+            offsets.commitSync(consumer, parts);
+            offsets.forget(parts);
+            consumer.unsubscribe();
+            manual = false;
+        }
+
+        // Antes de perder particiones confirmamos lo ya procesado; lo que siga en vuelo en los
+        // workers se volverá a entregar al nuevo dueño (duplicado posible, pérdida no).
+        private ConsumerRebalanceListener rebalanceListener() {
+            return new ConsumerRebalanceListener() {
+                @Override public void onPartitionsRevoked(Collection<TopicPartition> parts) {
+                    offsets.commitSync(consumer, parts);
+                    offsets.forget(parts);
+                }
+                @Override public void onPartitionsAssigned(Collection<TopicPartition> parts) {}
+            };
+        }
+
+        // Pausa las particiones de los topics cuya cola está llena y reanuda las que ya bajaron.
+        // Devuelve si queda algo pausado.
+        private boolean applyBackpressure() {
+            boolean anyPaused = false;
+            for (Sub sub : handlers.values()) {
+                TopicFlow flow = sub.flow();
+                if (flow.shouldPause()) {
+                    consumer.pause(partitionsOf(flow.topic));
+                    flow.markPaused();
+                    System.out.println("[BUS] PAUSE topic=" + flow.topic + " depth=" + flow.depth());
+                } else if (flow.shouldResume()) {
+                    consumer.resume(partitionsOf(flow.topic));
+                    flow.markResumed();
+                    System.out.println("[BUS] RESUME topic=" + flow.topic + " depth=" + flow.depth());
+                } else if (flow.paused()) {
+                    // Tras un rebalanceo las particiones nuevas llegan sin pausar
+                    consumer.pause(partitionsOf(flow.topic));
+                }
+                anyPaused |= flow.paused();
+            }
+            return anyPaused;
+        }
+
+        private List<TopicPartition> partitionsOf(String topic) {
+            List<TopicPartition> out = new ArrayList<>();
+            for (TopicPartition tp : consumer.assignment()) {
+                if (tp.topic().equals(topic)) out.add(tp);
+            }
+            return out;
+        }
+
+        void close() {
+            try { consumer.wakeup(); } catch (Exception ignore) {}
+            try { thread.join(5000); } catch (InterruptedException ignore) {}
+        }
+    }
+
+    @Override
+    public JsonObject metrics() {
+        JsonObject topics = new JsonObject();
+        JsonObject commits = new JsonObject();
+        synchronized (lanes) {
+            for (LanePoller lp : lanes.values()) {
+                for (Map.Entry<String, Sub> e : lp.handlers.entrySet()) {
+                    JsonObject t = e.getValue().flow().snapshot();
+                    t.addProperty("lane", lp.lane.name());
+                    topics.add(e.getKey(), t);
                 }
+                commits.add(lp.lane.name(), lp.offsets.snapshot());
             }
-        } catch (WakeupException we) {
-            // cierre
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("impl", "kafka");
+        root.addProperty("codec", codec.name());
+        root.add("topics", topics);
+        root.add("commits", commits);
+        if (outbox != null) {
+            root.add("outbox", outbox.snapshot());
+        }
+        return root;
+    }
+
+    private static void deliver(Consumer<JsonObject> h, ConsumerRecord<String,byte[]> r) {
+        JsonObject jo;
+        try {
+            jo = PayloadCodec.decode(r.value());
+        } catch (Exception parse) {
+            System.err.println("[BUS] ERROR parse: " + parse.getMessage() + " value=" + PayloadCodec.describe(r.value()));
+            return;
+        }
+        try {
+            h.accept(jo);
         } catch (Exception e) {
-            if (running.get()) System.err.println("[BUS] pollLoop error: " + e.getMessage());
-        } finally {
-            try { consumer.close(); } catch (Exception ignore) {}
+            System.err.println("[BUS] ERROR handler topic=" + r.topic() + ": " + e.getMessage());
         }
     }
 
     @Override
     public void close() {
         running.set(false);
-        try { consumer.wakeup(); } catch (Exception ignore) {}
+        List<LanePoller> all;
+        synchronized (lanes) { all = new ArrayList<>(lanes.values()); }
+        for (LanePoller lp : all) lp.close();
+        // El outbox necesita el productor vivo para vaciarse: se cierra antes
+        if (outbox != null) outbox.close();
         try { producer.flush(); producer.close(); } catch (Exception ignore) {}
-        try { poller.join(1000); } catch (InterruptedException ignore) {}
+        synchronized (knownTopics) {
+            if (admin != null) { try { admin.close(); } catch (Exception ignore) {} admin = null; }
+        }
     }
 
+    private static int parseIntOr(String s, int def){ try{ return Integer.parseInt(s.trim()); }catch(Exception e){ return def; } }
     private static boolean isBlank(String s){ return s==null || s.trim().isEmpty(); }
     private static String required(Properties p, String k){
         String v = p.getProperty(k);
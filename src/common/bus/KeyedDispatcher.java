@@ -0,0 +1,66 @@
+package common.bus;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Reparte tareas entre N hilos según la clave del mensaje (CP o sesión).
+// Cada hilo tiene su propia cola FIFO, así que todo lo de una misma clave se procesa
+// en orden y en un único hilo, mientras que claves distintas avanzan en paralelo.
+final class KeyedDispatcher {
+    private static final Runnable POISON = () -> {};
+
+    private final String name;
+    private final BlockingQueue<Runnable>[] queues;
+    private final Thread[] workers;
+
+    @SuppressWarnings("unchecked")
+    KeyedDispatcher(String name, int n) {
+        this.name = name;
+        this.queues = (BlockingQueue<Runnable>[]) new BlockingQueue<?>[n];
+        this.workers = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            BlockingQueue<Runnable> q = new LinkedBlockingQueue<>();
+            queues[i] = q;
+            Thread t = new Thread(() -> runWorker(q), name + "-w" + i);
+            t.setDaemon(true);
+            workers[i] = t;
+            t.start();
+        }
+    }
+
+    // shard: clave del record; si no hay clave se usa la partición para no perder el orden de Kafka
+    void submit(String key, int partition, Runnable task) {
+        int h = (key != null) ? key.hashCode() : partition;
+        queues[Math.floorMod(h, queues.length)].add(task);
+    }
+
+    int size() { return workers.length; }
+
+    private void runWorker(BlockingQueue<Runnable> q) {
+        try {
+            while (true) {
+                Runnable r = q.take();
+                if (r == POISON) return;
+                try {
+                    r.run();
+                } catch (Exception e) {
+                    System.err.println("[BUS] " + name + " handler error: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException ie) {
+            // cierre
+        }
+    }
+
+    // Deja terminar lo que ya está encolado (hasta timeoutMs) y para los hilos
+    void close(long timeoutMs) {
+        for (BlockingQueue<Runnable> q : queues) q.add(POISON);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Thread t : workers) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try { if (left > 0) t.join(left); } catch (InterruptedException ignore) {}
+            if (t.isAlive()) t.interrupt();
+        }
+    }
+}
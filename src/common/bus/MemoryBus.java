@@ -0,0 +1,147 @@
+package common.bus;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Bus en memoria dentro de la JVM: un RingTopic por topic, cada suscriptor con su hilo.
+// Sirve para levantar CENTRAL, ENGINE, DRIVER y EV_W en un mismo proceso (sitios pequeños,
+// pruebas de carga sin broker). Se activa con bus.impl=memory.
+//
+// A diferencia de Kafka aquí no hay grupos: cada subscribe() recibe todos los mensajes del topic
+// publicados desde ese momento, que es lo que hacen hoy los componentes (cada uno con su groupId).
+public final class MemoryBus implements EventBus {
+
+    // Estado compartido por todos los componentes del proceso
+    private static final class Hub {
+        final int ringSize;
+        final String waitName;
+        final boolean debug;
+        final long publishTimeoutMs;
+        final Map<String, RingTopic> topics = new ConcurrentHashMap<>();
+        int refs = 0;
+
+        Hub(int ringSize, String waitName, boolean debug, long publishTimeoutMs) {
+            this.ringSize = ringSize;
+            this.waitName = waitName;
+            this.debug = debug;
+            this.publishTimeoutMs = publishTimeoutMs;
+        }
+
+        RingTopic topic(String name) {
+            return topics.computeIfAbsent(name, t -> new RingTopic(t, ringSize, WaitStrategy.of(waitName), publishTimeoutMs));
+        }
+    }
+
+    private static final Object HUB_LOCK = new Object();
+    private static Hub hub;
+
+    private final Hub h;
+    private final List<RingTopic.Subscriber> mine = new ArrayList<>();
+    private boolean closed = false;
+
+    private MemoryBus(Hub h) { this.h = h; }
+
+    // Cada componente obtiene su propio MemoryBus sobre el hub único de la JVM.
+    // close() solo quita sus suscripciones; el hub se libera cuando cierra el último.
+    public static EventBus shared(Properties p) {
+        synchronized (HUB_LOCK) {
+            if (hub == null) {
+                int size = ceilPow2(parseIntOr(p.getProperty("bus.memory.ringSize"), 65536));
+                String wait = p.getProperty("bus.memory.waitStrategy","blocking").trim();
+                boolean debug = Boolean.parseBoolean(p.getProperty("kafka.debug","false"));
+                long publishTimeoutMs = parseIntOr(p.getProperty("bus.memory.publishTimeoutMs"), 5000);
+                hub = new Hub(size, wait, debug, publishTimeoutMs);
+                System.out.println("[BUS:MEM] Bus en memoria. ringSize=" + size + " wait=" + wait
+                        + " publishTimeout=" + publishTimeoutMs + "ms");
+            }
+            hub.refs++;
+            return new MemoryBus(hub);
+        }
+    }
+
+    @Override
+    public void publish(String topic, String key, JsonObject payload) {
+        if (h.debug) System.out.println("[BUS→MEM] topic=" + topic + " key=" + key + " value=" + payload);
+        h.topic(topic).publish(key, payload);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAsync(String topic, String key, JsonObject payload) {
+        try {
+            publish(topic, key, payload);
+            return CompletableFuture.completedFuture(null);
+        } catch (IllegalStateException full) {
+            return CompletableFuture.failedFuture(full);
+        }
+    }
+
+    @Override
+    public void subscribe(String topic, Consumer<JsonObject> handler) {
+        subscribe(topic, handler, SubscribeOptions.INLINE);
+    }
+
+    // Cada suscriptor ya tiene su hilo y lee en lotes: de las opciones solo aplican routeKey y filter
+    @Override
+    public void subscribe(String topic, Consumer<JsonObject> handler, SubscribeOptions opts) {
+        RingTopic rt = h.topic(topic);
+        RingTopic.Subscriber sub = rt.subscribe("mem-" + topic + "-" + rt.subscribers().size(), handler, opts.routeKey(), opts.filter());
+        synchronized (mine) { mine.add(sub); }
+        System.out.println("[BUS:MEM] subscribe topic=" + topic);
+    }
+
+    @Override
+    public JsonObject metrics() {
+        JsonObject ts = new JsonObject();
+        for (Map.Entry<String, RingTopic> e : h.topics.entrySet()) {
+            RingTopic rt = e.getValue();
+            JsonObject o = new JsonObject();
+            o.addProperty("published", rt.published());
+            o.addProperty("producerWaits", rt.producerWaits());
+            o.addProperty("publishFailures", rt.publishFailures());
+            JsonArray subs = new JsonArray();
+            for (RingTopic.Subscriber s : rt.subscribers()) {
+                JsonObject so = new JsonObject();
+                so.addProperty("name", s.name);
+                so.addProperty("delivered", s.delivered.get());
+                so.addProperty("lag", s.lag());
+                so.addProperty("maxBatch", s.maxBatch);
+                subs.add(so);
+            }
+            o.add("subscribers", subs);
+            ts.add(e.getKey(), o);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("impl", "memory");
+        root.addProperty("ringSize", h.ringSize);
+        root.addProperty("waitStrategy", h.waitName);
+        root.add("topics", ts);
+        return root;
+    }
+
+    @Override
+    public void close() {
+        synchronized (mine) {
+            if (closed) return;
+            closed = true;
+            for (RingTopic.Subscriber s : mine) h.topic(s.topic()).unsubscribe(s);
+            mine.clear();
+        }
+        synchronized (HUB_LOCK) {
+            if (--h.refs == 0 && hub == h) hub = null;
+        }
+    }
+
+    private static int ceilPow2(int n) {
+        if (n < 2) return 2;
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static int parseIntOr(String s, int def){ try{ return Integer.parseInt(s.trim()); }catch(Exception e){ return def; } }
+}
@@ -0,0 +1,74 @@
+package common.bus;
+
+import com.google.gson.JsonObject;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Banco de pruebas del MemoryBus (no lo usa ningún componente).
+//
+//   java -cp out:lib/* common.bus.MemoryBusBench [productores] [suscriptores] [mensajes] [wait] [ringSize]
+//
+// Cada productor publica mensajes/productores TEL en un mismo topic; se mide desde el primer publish
+// hasta que todos los suscriptores han recibido todos los mensajes. Se hace una pasada de
+// calentamiento con los mismos parámetros antes de la medida.
+public final class MemoryBusBench {
+
+    public static void main(String[] args) throws Exception {
+        int producers   = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int subscribers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long messages   = args.length > 2 ? Long.parseLong(args[2]) : 8_000_000L;
+        String wait     = args.length > 3 ? args[3] : "blocking";
+        int ringSize    = args.length > 4 ? Integer.parseInt(args[4]) : 65536;
+
+        System.out.println("[BENCH] MemoryBus productores=" + producers + " suscriptores=" + subscribers
+                + " mensajes=" + messages + " wait=" + wait + " ringSize=" + ringSize);
+
+        run("calentamiento", producers, subscribers, messages / 4, wait, ringSize);
+        run("medida", producers, subscribers, messages, wait, ringSize);
+    }
+
+    private static void run(String fase, int producers, int subscribers, long messages, String wait, int ringSize)
+            throws Exception {
+        Properties p = new Properties();
+        p.setProperty("bus.memory.ringSize", String.valueOf(ringSize));
+        p.setProperty("bus.memory.waitStrategy", wait);
+        EventBus bus = MemoryBus.shared(p);
+
+        long perProducer = messages / producers;
+        long total = perProducer * producers;
+        String topic = "bench." + fase;
+
+        CountDownLatch done = new CountDownLatch(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            AtomicLong seen = new AtomicLong();
+            bus.subscribe(topic, _ -> { if (seen.incrementAndGet() == total) done.countDown(); });
+        }
+
+        JsonObject msg = new JsonObject();
+        msg.addProperty("type", "TEL");
+        msg.addProperty("cp", "CP-001");
+        msg.addProperty("kwh", 1.25);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            ts[i] = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (long n = 0; n < perProducer; n++) bus.publish(topic, "CP-001", msg);
+            }, "bench-prod-" + i);
+            ts[i].start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long ns = System.nanoTime() - t0;
+        for (Thread t : ts) t.join();
+
+        JsonObject topicMetrics = bus.metrics().getAsJsonObject("topics").getAsJsonObject(topic);
+        System.out.printf(java.util.Locale.ROOT, "[BENCH] %-13s %,d msg en %.2f s -> %,.0f msg/s (esperas productor=%s)%n",
+                fase, total, ns / 1e9, total / (ns / 1e9), topicMetrics.get("producerWaits"));
+        bus.close();
+    }
+}
@@ -0,0 +1,152 @@
+package common.bus;
+
+import com.google.gson.JsonObject;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Commit manual de offsets (at-least-once): un offset solo se confirma cuando su handler ha
+// terminado Y también todos los anteriores de la partición. Con workers en paralelo los mensajes
+// de una partición acaban desordenados, así que por partición guardamos los offsets pendientes
+// y el commit es siempre el menor pendiente (o el siguiente al último entregado si no queda ninguno).
+//
+// Los commits se agrupan por número de mensajes terminados o por tiempo. Todo lo que toca el
+// consumer se llama desde el hilo del poller; complete() lo llaman los workers.
+final class OffsetCommitter {
+
+    static final class Tracker {
+        private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+        private volatile long next = -1L;   // último offset entregado + 1
+        private long committed = -1L;       // solo poller
+
+        long committable() {
+            // Solo el poller añade a pending y mueve "next"; los workers solo quitan
+            try { return pending.first(); }
+            catch (NoSuchElementException empty) { return next; }
+        }
+    }
+
+    private final int batchSize;
+    private final long intervalMs;
+    private final Map<TopicPartition, Tracker> trackers = new ConcurrentHashMap<>();
+    private final AtomicLong doneSinceCommit = new AtomicLong();
+    private long lastCommitMs = System.currentTimeMillis();
+
+    // Métricas
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalLatencyUs = new AtomicLong();
+    private volatile long lastLatencyUs = 0L;
+    private volatile long maxLatencyUs = 0L;
+
+    OffsetCommitter(int batchSize, long intervalMs) {
+        this.batchSize = Math.max(1, batchSize);
+        this.intervalMs = Math.max(1L, intervalMs);
+    }
+
+    // Poller: el record se va a entregar. Devuelve el tracker para marcarlo después con complete().
+    Tracker track(ConsumerRecord<?,?> r) {
+        Tracker t = trackers.computeIfAbsent(new TopicPartition(r.topic(), r.partition()), _ -> new Tracker());
+        t.pending.add(r.offset());
+        t.next = r.offset() + 1;
+        return t;
+    }
+
+    // Poller: record que no tiene handler (o descartado); cuenta como hecho sin pasar por pending
+    void skip(ConsumerRecord<?,?> r) {
+        Tracker t = trackers.computeIfAbsent(new TopicPartition(r.topic(), r.partition()), _ -> new Tracker());
+        t.next = r.offset() + 1;
+        doneSinceCommit.incrementAndGet();
+    }
+
+    // Worker: handler terminado (bien o con error: el error ya se ha registrado y no se reintenta)
+    void complete(Tracker t, long offset) {
+        t.pending.remove(offset);
+        doneSinceCommit.incrementAndGet();
+    }
+
+    // Poller: commit asíncrono si toca por tamaño o por tiempo
+    void maybeCommit(Consumer<?,?> consumer) {
+        long now = System.currentTimeMillis();
+        if (doneSinceCommit.get() < batchSize && now - lastCommitMs < intervalMs) return;
+        lastCommitMs = now;
+
+        Map<TopicPartition, OffsetAndMetadata> offs = collect(trackers.keySet());
+        if (offs.isEmpty()) return;
+        doneSinceCommit.set(0);
+
+        long t0 = System.nanoTime();
+        consumer.commitAsync(offs, (ok, err) -> {
+            if (err != null) {
+                failures.incrementAndGet();
+                System.err.println("[BUS] ERROR commit: " + err.getMessage());
+            } else {
+                record(t0);
+            }
+        });
+    }
+
+    // Poller: commit síncrono (rebalanceo o cierre)
+    void commitSync(Consumer<?,?> consumer, Collection<TopicPartition> parts) {
+        Map<TopicPartition, OffsetAndMetadata> offs = collect(parts);
+        if (offs.isEmpty()) return;
+        long t0 = System.nanoTime();
+        try {
+            consumer.commitSync(offs);
+            record(t0);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            System.err.println("[BUS] ERROR commitSync: " + e.getMessage());
+        }
+    }
+
+    void forget(Collection<TopicPartition> parts) {
+        for (TopicPartition tp : parts) trackers.remove(tp);
+    }
+
+    Collection<TopicPartition> partitions() { return trackers.keySet(); }
+
+    private Map<TopicPartition, OffsetAndMetadata> collect(Collection<TopicPartition> parts) {
+        Map<TopicPartition, OffsetAndMetadata> offs = new HashMap<>();
+        for (TopicPartition tp : parts) {
+            Tracker t = trackers.get(tp);
+            if (t == null) continue;
+            long c = t.committable();
+            if (c > t.committed) {
+                offs.put(tp, new OffsetAndMetadata(c));
+                t.committed = c;
+            }
+        }
+        return offs;
+    }
+
+    private void record(long t0) {
+        long us = (System.nanoTime() - t0) / 1000L;
+        commits.incrementAndGet();
+        totalLatencyUs.addAndGet(us);
+        lastLatencyUs = us;
+        if (us > maxLatencyUs) maxLatencyUs = us;
+    }
+
+    JsonObject snapshot() {
+        long n = commits.get();
+        JsonObject o = new JsonObject();
+        o.addProperty("commits", n);
+        o.addProperty("failures", failures.get());
+        o.addProperty("lastLatencyMs", lastLatencyUs / 1000.0);
+        o.addProperty("maxLatencyMs", maxLatencyUs / 1000.0);
+        o.addProperty("avgLatencyMs", n == 0 ? 0.0 : (totalLatencyUs.get() / (double) n) / 1000.0);
+        o.addProperty("batchSize", batchSize);
+        o.addProperty("intervalMs", intervalMs);
+        return o;
+    }
+}
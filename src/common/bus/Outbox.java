@@ -0,0 +1,471 @@
+package common.bus;
+
+import com.google.gson.JsonObject;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.InvalidRecordException;
+import org.apache.kafka.common.errors.InvalidTopicException;
+import org.apache.kafka.common.errors.RecordBatchTooLargeException;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Outbox local: log circular en un fichero mapeado en memoria. publish() escribe aquí (microsegundos,
+// sin esperar al broker) y un hilo drainer lo envía a Kafka en el mismo orden. Si el proceso muere,
+// al arrancar se reenvía lo que quedase pendiente (at-least-once: tras un corte puede haber duplicados,
+// nunca pérdidas). Los datos viven en la page cache del SO: sobreviven a la caída del proceso; para
+// caídas de la máquina se fuerza a disco cada kafka.outbox.syncMs.
+//
+// Lleno (broker caído mucho rato): append() espera hasta fullWaitMs a que el drainer libere sitio y si
+// no, falla; nunca se envía saltándose el log. Un registro que Kafka no aceptará nunca (demasiado
+// grande, topic inválido) o que no se puede leer no bloquea a los de detrás: va a cuarentena
+// (<fichero>.poison, una línea JSON por registro) y se sigue.
+//
+// Cabecera (64 bytes): magic, versión, capacidad, readPos, writePos. Las posiciones son lógicas y
+// solo crecen; la física es HEADER + pos % capacidad. Cada registro:
+//   int len | short topic | topic | short key (-1 = null) | key | byte nHeaders
+//   | (byte name, name, short value, value)* | int value | value
+final class Outbox implements AutoCloseable {
+
+    private static final int MAGIC = 0x45564F42;   // "EVOB"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int H_CAPACITY = 8, H_READ = 16, H_WRITE = 24;
+    private static final int MAX_BATCH = 500;
+    // Lo que cabe en un solo MappedByteBuffer junto con la cabecera
+    static final long MAX_CAPACITY = Integer.MAX_VALUE - HEADER;
+
+    private final Path file;
+    private final FileChannel ch;
+    private final FileLock lock;
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private final Producer<String,byte[]> producer;
+    private final long syncMs;
+    private final Path poisonFile;
+
+    private volatile long readPos;    // solo lo escribe el drainer
+    private volatile long writePos;   // solo lo escribe append (bajo el monitor)
+    private volatile boolean running = true;
+    private final Thread drainer;
+
+    // Métricas
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong drained = new AtomicLong();
+    private final AtomicLong full = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong quarantined = new AtomicLong();
+    private int waiters = 0;   // appends esperando sitio (bajo el monitor)
+    private volatile long replayed = 0L;
+    private volatile String lastError = null;
+
+    private Outbox(Path file, FileChannel ch, FileLock lock, MappedByteBuffer buf, int capacity,
+                   Producer<String,byte[]> producer, long syncMs) {
+        this.file = file;
+        this.ch = ch;
+        this.lock = lock;
+        this.buf = buf;
+        this.capacity = capacity;
+        this.producer = producer;
+        this.syncMs = syncMs;
+        this.poisonFile = file.resolveSibling(file.getFileName() + ".poison");
+        this.readPos = buf.getLong(H_READ);
+        this.writePos = buf.getLong(H_WRITE);
+        this.drainer = new Thread(this::drainLoop, "kafka-outbox");
+        this.drainer.setDaemon(true);
+    }
+
+    // Abre (o crea) el outbox. Si el fichero ya existe se respeta su capacidad y se reenvía lo pendiente.
+    // Devuelve null si no se puede usar (otro proceso lo tiene bloqueado, E/S): el bus envía directo.
+    static Outbox open(Path file, long capacityBytes, long syncMs, Producer<String,byte[]> producer) {
+        if (capacityBytes <= 0 || capacityBytes > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacidad de outbox fuera de rango: " + capacityBytes + "B (máx " + MAX_CAPACITY + ")");
+        }
+        FileChannel ch = null;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = ch.tryLock();
+            if (lock == null) {
+                System.err.println("[BUS] WARN outbox " + file + " en uso por otro proceso; se envía sin outbox");
+                ch.close();
+                return null;
+            }
+
+            int capacity = (int) capacityBytes;
+            boolean existing = false;
+            if (ch.size() >= HEADER) {
+                MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+                if (h.getInt(0) == MAGIC && h.getInt(4) == VERSION) {
+                    capacity = h.getInt(H_CAPACITY);
+                    existing = true;
+                }
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER + capacity);
+            if (!existing) {
+                buf.putInt(0, MAGIC);
+                buf.putInt(4, VERSION);
+                buf.putInt(H_CAPACITY, capacity);
+                buf.putLong(H_READ, 0L);
+                buf.putLong(H_WRITE, 0L);
+                buf.force();
+            }
+
+            Outbox ob = new Outbox(file, ch, lock, buf, capacity, producer, syncMs);
+            ob.checkConsistency();
+            ob.replayed = ob.writePos - ob.readPos;
+            System.out.println("[BUS] Outbox " + file + " capacity=" + capacity + " pendiente=" + ob.replayed + "B");
+            ob.drainer.start();
+            return ob;
+        } catch (Exception e) {
+            System.err.println("[BUS] WARN no se pudo abrir el outbox " + file + ": " + e.getMessage() + "; se envía sin outbox");
+            if (ch != null) try { ch.close(); } catch (IOException ignore) {}
+            return null;
+        }
+    }
+
+    // Cabecera corrupta (p.ej. fichero truncado): mejor empezar vacío que reenviar basura
+    private void checkConsistency() {
+        long used = writePos - readPos;
+        if (readPos < 0 || used < 0 || used > capacity) {
+            System.err.println("[BUS] WARN outbox inconsistente (read=" + readPos + " write=" + writePos + "), se reinicia");
+            readPos = writePos = 0L;
+            buf.putLong(H_READ, 0L);
+            buf.putLong(H_WRITE, 0L);
+        }
+    }
+
+    // Guarda el mensaje. Si no cabe espera hasta waitMs a que el drainer libere sitio; false si sigue
+    // sin caber (o el outbox está cerrado): el llamante debe tratarlo como publicación fallida.
+    boolean append(String topic, String key, byte[] value, Headers headers, long waitMs) {
+        byte[] t = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] k = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+        int len = 2 + t.length + 2 + (k == null ? 0 : k.length) + 1 + 4 + value.length;
+        int nh = 0;
+        for (Header h : headers) {
+            len += 1 + h.key().length() + 2 + h.value().length;
+            nh++;
+        }
+        int total = 4 + len;
+
+        synchronized (this) {
+            if (!running) return false;
+            if (total > capacity - (writePos - readPos)) {
+                full.incrementAndGet();
+                long deadline = System.nanoTime() + waitMs * 1_000_000L;
+                waiters++;
+                try {
+                    while (running && total > capacity - (writePos - readPos)) {
+                        long left = (deadline - System.nanoTime()) / 1_000_000L;
+                        if (left <= 0 || total > capacity) break;
+                        wait(left);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waiters--;
+                }
+                if (!running || total > capacity - (writePos - readPos)) {
+                    if (rejected.incrementAndGet() % 100 == 1) {
+                        System.err.println("[BUS] ERROR outbox lleno (" + (writePos - readPos) + "/" + capacity
+                                + "B) tras " + waitMs + "ms: publicación rechazada topic=" + topic + " (rechazadas=" + rejected.get() + ")");
+                    }
+                    return false;
+                }
+            }
+            long w = writePos;
+            w = putInt(w, len);
+            w = putShort(w, t.length);
+            w = put(w, t);
+            w = putShort(w, k == null ? -1 : k.length);
+            if (k != null) w = put(w, k);
+            w = put(w, new byte[] { (byte) nh });
+            for (Header h : headers) {
+                byte[] name = h.key().getBytes(StandardCharsets.US_ASCII);
+                w = put(w, new byte[] { (byte) name.length });
+                w = put(w, name);
+                w = putShort(w, h.value().length);
+                w = put(w, h.value());
+            }
+            w = putInt(w, value.length);
+            w = put(w, value);
+            // Primero los datos, luego la posición: un corte a medias no deja registros a medias
+            buf.putLong(H_WRITE, w);
+            writePos = w;
+        }
+        appended.incrementAndGet();
+        LockSupport.unpark(drainer);
+        return true;
+    }
+
+    // ---------- drainer ----------
+
+    private void drainLoop() {
+        long backoffMs = 100;
+        long lastSync = System.currentTimeMillis();
+        while (running || readPos < writePos) {
+            long r = readPos, w = writePos;
+            if (r == w) {
+                if (!running) break;
+                LockSupport.parkNanos(100_000_000L);
+                lastSync = maybeSync(lastSync);
+                continue;
+            }
+
+            // Lote en orden; avanzamos readPos hasta el último enviado (o en cuarentena) sin huecos
+            List<ProducerRecord<String,byte[]>> recs = new ArrayList<>();
+            List<Future<RecordMetadata>> sent = new ArrayList<>();
+            List<Long> ends = new ArrayList<>();
+            long pos = r;
+            try {
+                while (pos < w && sent.size() < MAX_BATCH) {
+                    long[] next = new long[1];
+                    ProducerRecord<String,byte[]> rec = readAt(pos, next);
+                    Future<RecordMetadata> f;
+                    boolean syncError = false;
+                    try {
+                        f = producer.send(rec);
+                    } catch (Exception e) {
+                        // Fallo síncrono de send(): se clasifica abajo como los demás; no enviamos nada detrás
+                        f = CompletableFuture.failedFuture(e);
+                        syncError = true;
+                    }
+                    recs.add(rec);
+                    sent.add(f);
+                    pos = next[0];
+                    ends.add(pos);
+                    if (syncError) break;
+                }
+            } catch (IllegalStateException corrupt) {
+                if (sent.isEmpty()) {
+                    // No hay forma de saber dónde empieza el siguiente: se descarta lo pendiente
+                    System.err.println("[BUS] ERROR outbox: " + corrupt.getMessage() + ", se descartan " + (w - r) + "B");
+                    buf.putLong(H_READ, w);
+                    readPos = w;
+                    wakeAppenders();
+                    continue;
+                }
+            }
+
+            long acked = r;
+            int ok = 0;
+            for (int i = 0; i < sent.size(); i++) {
+                try {
+                    sent.get(i).get();
+                    acked = ends.get(i);
+                    ok++;
+                } catch (InterruptedException ie) {
+                    break;
+                } catch (Exception e) {
+                    Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+                    if (poison(cause)) {
+                        quarantine(recs.get(i), cause);
+                        acked = ends.get(i);
+                        continue;
+                    }
+                    noteError(cause);
+                    break;
+                }
+            }
+
+            if (acked > r) {
+                drained.addAndGet(ok);
+                buf.putLong(H_READ, acked);
+                readPos = acked;
+                backoffMs = 100;
+                wakeAppenders();
+            }
+            if (acked < pos || sent.isEmpty()) {
+                // Broker caído o lento: reintento con espera creciente, sin perder nada
+                if (!running) break;
+                try { Thread.sleep(backoffMs); } catch (InterruptedException ie) { break; }
+                backoffMs = Math.min(5000, backoffMs * 2);
+            }
+            lastSync = maybeSync(lastSync);
+        }
+        try { buf.force(); } catch (Exception ignore) {}
+    }
+
+    private void wakeAppenders() {
+        synchronized (this) { if (waiters > 0) notifyAll(); }
+    }
+
+    // Errores que no se arreglan reintentando y son culpa del propio registro. El resto (broker caído,
+    // timeouts, permisos, productor cerrado...) se reintenta sin perder nada.
+    private static boolean poison(Throwable t) {
+        return t instanceof RecordTooLargeException
+            || t instanceof RecordBatchTooLargeException
+            || t instanceof InvalidTopicException
+            || t instanceof SerializationException
+            || t instanceof InvalidRecordException;
+    }
+
+    // El registro sale del log (para no bloquear a los de detrás) pero queda en <fichero>.poison
+    private void quarantine(ProducerRecord<String,byte[]> rec, Throwable err) {
+        long n = quarantined.incrementAndGet();
+        System.err.println("[BUS] ERROR outbox: registro a cuarentena topic=" + rec.topic() + " key=" + rec.key()
+                + " (" + err.getClass().getSimpleName() + ": " + err.getMessage() + ") total=" + n + " -> " + poisonFile);
+        JsonObject o = new JsonObject();
+        o.addProperty("ts", System.currentTimeMillis());
+        o.addProperty("topic", rec.topic());
+        o.addProperty("key", rec.key());
+        o.addProperty("error", err.getClass().getName() + ": " + err.getMessage());
+        o.addProperty("value", Base64.getEncoder().encodeToString(rec.value()));
+        try {
+            Files.writeString(poisonFile, o + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("[BUS] ERROR outbox: no se pudo escribir la cuarentena: " + e.getMessage());
+        }
+    }
+
+    private long maybeSync(long lastSync) {
+        long now = System.currentTimeMillis();
+        if (syncMs > 0 && now - lastSync >= syncMs) {
+            try { buf.force(); } catch (Exception ignore) {}
+            return now;
+        }
+        return lastSync;
+    }
+
+    private void noteError(Throwable e) {
+        String msg = e.getMessage();
+        if (sendErrors.incrementAndGet() % 100 == 1) {
+            System.err.println("[BUS] WARN outbox: envío fallido, se reintentará: " + msg);
+        }
+        lastError = msg;
+    }
+
+    // IllegalStateException si el registro no se puede leer (longitudes fuera de rango, etc.)
+    private ProducerRecord<String,byte[]> readAt(long pos, long[] next) {
+        try {
+            return decodeAt(pos, next);
+        } catch (IllegalStateException corrupt) {
+            throw corrupt;
+        } catch (RuntimeException bad) {
+            throw new IllegalStateException("registro corrupto en " + pos + " (" + bad + ")");
+        }
+    }
+
+    private ProducerRecord<String,byte[]> decodeAt(long pos, long[] next) {
+        byte[] i4 = new byte[4];
+        long p = get(pos, i4);
+        int len = readInt(i4);
+        if (len <= 0 || len > capacity) throw new IllegalStateException("registro corrupto en " + pos);
+
+        byte[] rec = new byte[len];
+        get(p, rec);
+        next[0] = p + len;
+
+        int off = 0;
+        int tl = ((rec[off] & 0xFF) << 8) | (rec[off + 1] & 0xFF); off += 2;
+        String topic = new String(rec, off, tl, StandardCharsets.UTF_8); off += tl;
+        int kl = (short) (((rec[off] & 0xFF) << 8) | (rec[off + 1] & 0xFF)); off += 2;
+        String key = null;
+        if (kl >= 0) { key = new String(rec, off, kl, StandardCharsets.UTF_8); off += kl; }
+        int nh = rec[off++] & 0xFF;
+        RecordHeaders hs = new RecordHeaders();
+        for (int i = 0; i < nh; i++) {
+            int nl = rec[off++] & 0xFF;
+            String name = new String(rec, off, nl, StandardCharsets.US_ASCII); off += nl;
+            int vl = ((rec[off] & 0xFF) << 8) | (rec[off + 1] & 0xFF); off += 2;
+            byte[] v = new byte[vl];
+            System.arraycopy(rec, off, v, 0, vl); off += vl;
+            hs.add(name, v);
+        }
+        int valLen = readInt(rec, off); off += 4;
+        byte[] value = new byte[valLen];
+        System.arraycopy(rec, off, value, 0, valLen);
+        return new ProducerRecord<>(topic, null, key, value, hs);
+    }
+
+    // ---------- acceso circular ----------
+
+    private long put(long pos, byte[] src) {
+        int phys = (int) (pos % capacity);
+        int first = Math.min(src.length, capacity - phys);
+        buf.put(HEADER + phys, src, 0, first);
+        if (first < src.length) buf.put(HEADER, src, first, src.length - first);
+        return pos + src.length;
+    }
+
+    private long get(long pos, byte[] dst) {
+        int phys = (int) (pos % capacity);
+        int first = Math.min(dst.length, capacity - phys);
+        buf.get(HEADER + phys, dst, 0, first);
+        if (first < dst.length) buf.get(HEADER, dst, first, dst.length - first);
+        return pos + dst.length;
+    }
+
+    private long putInt(long pos, int v) {
+        return put(pos, new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v });
+    }
+
+    private long putShort(long pos, int v) {
+        return put(pos, new byte[] { (byte) (v >>> 8), (byte) v });
+    }
+
+    private static int readInt(byte[] b) { return readInt(b, 0); }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    JsonObject snapshot() {
+        JsonObject o = new JsonObject();
+        o.addProperty("file", file.toString());
+        o.addProperty("capacity", capacity);
+        o.addProperty("pendingBytes", writePos - readPos);
+        o.addProperty("appended", appended.get());
+        o.addProperty("drained", drained.get());
+        o.addProperty("replayedBytes", replayed);
+        o.addProperty("full", full.get());
+        o.addProperty("sendErrors", sendErrors.get());
+        o.addProperty("rejected", rejected.get());
+        o.addProperty("quarantined", quarantined.get());
+        if (lastError != null) o.addProperty("lastError", lastError);
+        return o;
+    }
+
+    // Intenta vaciar durante timeoutMs; lo que quede se reenvía en el próximo arranque
+    @Override
+    public void close() {
+        close(5000);
+    }
+
+    void close(long timeoutMs) {
+        synchronized (this) { running = false; notifyAll(); }
+        LockSupport.unpark(drainer);
+        try { drainer.join(timeoutMs); } catch (InterruptedException ignore) {}
+        if (drainer.isAlive()) {
+            System.out.println("[BUS] Outbox: quedan " + (writePos - readPos) + "B pendientes para el próximo arranque");
+            drainer.interrupt();
+            try { drainer.join(1000); } catch (InterruptedException ignore) {}
+        }
+        try { buf.force(); } catch (Exception ignore) {}
+        try { lock.release(); } catch (Exception ignore) {}
+        try { ch.close(); } catch (Exception ignore) {}
+    }
+}
@@ -0,0 +1,50 @@
+package common.bus;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Properties;
+
+// Codificación de los mensajes del bus a bytes.
+// La lectura es siempre autodetectada por el primer byte, así que en una flota mixta cada proceso
+// puede escribir en un formato distinto y todos se entienden:
+//   '{'          -> JSON UTF-8 (formato histórico, "versión 0")
+//   BinaryCodec  -> byte mágico + versión + cuerpo binario
+// kafka.codec elige solo con qué formato ESCRIBE cada proceso.
+public interface PayloadCodec {
+
+    String name();
+    byte[] encode(JsonObject payload);
+
+    PayloadCodec JSON = new PayloadCodec() {
+        @Override public String name() { return "json"; }
+        @Override public byte[] encode(JsonObject payload) {
+            return payload.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    static PayloadCodec from(Properties p) {
+        String c = p.getProperty("kafka.codec","json").trim().toLowerCase(Locale.ROOT);
+        return switch (c) {
+            case "binary", "bin" -> BinaryCodec.INSTANCE;
+            default              -> JSON;
+        };
+    }
+
+    static JsonObject decode(byte[] data) {
+        if (data == null || data.length == 0) throw new IllegalArgumentException("payload vacío");
+        if (data[0] == BinaryCodec.MAGIC) return BinaryCodec.INSTANCE.decode(data);
+        return JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    // Para trazas: JSON tal cual, binario resumido
+    static String describe(byte[] data) {
+        if (data == null) return "null";
+        if (data.length > 0 && data[0] == BinaryCodec.MAGIC) {
+            try { return "bin(" + data.length + "B)" + BinaryCodec.INSTANCE.decode(data); }
+            catch (Exception e) { return "bin(" + data.length + "B, corrupto)"; }
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,27 @@
+package common.bus;
+
+// Filtro previo de una suscripción: decide con la clave y las cabeceras si el mensaje interesa.
+// Lo que no pasa se descarta sin decodificar el payload (ni JSON, ni binario, ni AES).
+// Si el publicador es antiguo y no pone cabeceras, los filtros "not" dejan pasar el mensaje y el
+// handler sigue haciendo su propia comprobación.
+@FunctionalInterface
+public interface RecordFilter {
+
+    boolean accept(String key, BusHeaders headers);
+
+    static RecordFilter header(String name, String value) {
+        return (k, h) -> h.is(name, value);
+    }
+
+    static RecordFilter notHeader(String name, String value) {
+        return (k, h) -> !h.is(name, value);
+    }
+
+    static RecordFilter key(String key) {
+        return (k, h) -> key.equals(k);
+    }
+
+    default RecordFilter and(RecordFilter other) {
+        return (k, h) -> accept(k, h) && other.accept(k, h);
+    }
+}
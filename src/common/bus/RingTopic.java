@@ -0,0 +1,195 @@
+package common.bus;
+
+import com.google.gson.JsonObject;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Ring buffer de un topic (estilo Disruptor) con varios productores y varios suscriptores.
+//
+//  - Los productores reservan secuencia con un getAndIncrement sobre "claim", rellenan el hueco
+//    y lo marcan publicado escribiendo su secuencia en "published" (sin locks).
+//  - Cada suscriptor tiene su hilo y su propia secuencia; lee en lotes todo lo publicado de forma
+//    contigua y luego avanza su secuencia de una vez.
+//  - Un productor no puede pisar un hueco que el suscriptor más lento aún no ha leído: espera, como
+//    mucho publishTimeoutMs, y si no hay hueco publish() falla (IllegalStateException). Si quien publica
+//    es un handler de este mismo topic y es él quien retiene el hueco, falla en el acto (esperar sería
+//    esperarse a sí mismo). La secuencia se reserva solo cuando hay hueco, así que un fallo no deja
+//    agujeros en el ring.
+//
+// Todos los suscriptores reciben el MISMO JsonObject: los handlers no deben modificarlo.
+final class RingTopic {
+
+    private static final class Slot {
+        String key;
+        JsonObject payload;
+    }
+
+    final class Subscriber implements Runnable {
+        final String name;
+        final Consumer<JsonObject> handler;
+        final String routeKey;       // null = todas las claves
+        final RecordFilter filter;   // null = sin filtro
+        private final BusHeaders.JsonView headerView = new BusHeaders.JsonView();
+        final AtomicLong sequence;   // última secuencia procesada
+        volatile boolean running = true;
+        final AtomicLong delivered = new AtomicLong();
+        volatile long maxBatch = 0;
+
+        Subscriber(String name, Consumer<JsonObject> handler, String routeKey, RecordFilter filter, long startAfter) {
+            this.name = name;
+            this.handler = handler;
+            this.routeKey = routeKey;
+            this.filter = filter;
+            this.sequence = new AtomicLong(startAfter);
+        }
+
+        @Override
+        public void run() {
+            CURRENT.set(this);
+            long next = sequence.get() + 1;
+            int spins = 0;
+            try {
+                while (running) {
+                    long avail = highestPublished(next, claim.get() - 1);
+                    if (avail < next) {
+                        waiter.idle(spins++);
+                        continue;
+                    }
+                    spins = 0;
+                    for (long s = next; s <= avail; s++) {
+                        Slot slot = slots[(int) (s & mask)];
+                        if (routeKey != null && !routeKey.equals(slot.key)) continue;
+                        if (filter != null && !filter.accept(slot.key, headerView.wrap(slot.payload))) continue;
+                        try {
+                            handler.accept(slot.payload);
+                        } catch (Exception e) {
+                            System.err.println("[BUS:MEM] ERROR handler topic=" + topic + ": " + e.getMessage());
+                        }
+                    }
+                    long batch = avail - next + 1;
+                    delivered.addAndGet(batch);
+                    if (batch > maxBatch) maxBatch = batch;
+                    sequence.set(avail);
+                    next = avail + 1;
+                }
+            } catch (InterruptedException ie) {
+                // cierre
+            }
+        }
+
+        long lag() { return Math.max(0L, claim.get() - 1 - sequence.get()); }
+
+        String topic() { return topic; }
+
+        RingTopic ring() { return RingTopic.this; }
+    }
+
+    // Suscriptor que corre en este hilo (para detectar publicaciones desde un handler)
+    private static final ThreadLocal<Subscriber> CURRENT = new ThreadLocal<>();
+
+    final String topic;
+    private final int mask;
+    private final Slot[] slots;
+    private final AtomicLongArray published;
+    private final AtomicLong claim = new AtomicLong(0);   // siguiente secuencia a reservar
+    private final WaitStrategy waiter;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong producerWaits = new AtomicLong();
+    private final AtomicLong publishFailures = new AtomicLong();
+    private final long publishTimeoutNanos;
+
+    RingTopic(String topic, int size, WaitStrategy waiter, long publishTimeoutMs) {
+        if (Integer.bitCount(size) != 1) throw new IllegalArgumentException("ringSize debe ser potencia de 2: " + size);
+        this.topic = topic;
+        this.mask = size - 1;
+        this.slots = new Slot[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            published.set(i, -1L);
+        }
+        this.waiter = waiter;
+        this.publishTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, publishTimeoutMs));
+    }
+
+    void publish(String key, JsonObject payload) {
+        long seq;
+        long deadline = 0L;
+        boolean waited = false;
+        for (;;) {
+            seq = claim.get();
+            long wrapPoint = seq - slots.length;
+            // Hay hueco si todos han leído la vuelta anterior de este hueco
+            if (wrapPoint < 0 || wrapPoint <= minSequence()) {
+                if (claim.compareAndSet(seq, seq + 1)) break;
+                continue;
+            }
+            Subscriber me = CURRENT.get();
+            if (me != null && me.ring() == this && me.sequence.get() < wrapPoint) {
+                throw lleno("publicación desde un handler del propio topic (" + me.name + ")");
+            }
+            long now = System.nanoTime();
+            if (!waited) {
+                waited = true;
+                deadline = now + publishTimeoutNanos;
+            } else if (now - deadline >= 0) {
+                throw lleno("sin hueco tras " + TimeUnit.NANOSECONDS.toMillis(publishTimeoutNanos) + "ms");
+            }
+            LockSupport.parkNanos(1_000L);
+        }
+        if (waited) producerWaits.incrementAndGet();
+
+        Slot slot = slots[(int) (seq & mask)];
+        slot.key = key;
+        slot.payload = payload;
+        published.set((int) (seq & mask), seq);   // escritura volátil: publica key/payload
+        waiter.signal();
+    }
+
+    Subscriber subscribe(String name, Consumer<JsonObject> handler, String routeKey, RecordFilter filter) {
+        // El suscriptor nuevo empieza por lo que se publique a partir de ahora
+        Subscriber sub = new Subscriber(name, handler, routeKey, filter, claim.get() - 1);
+        subscribers.add(sub);
+        Thread t = new Thread(sub, name);
+        t.setDaemon(true);
+        t.start();
+        return sub;
+    }
+
+    void unsubscribe(Subscriber sub) {
+        sub.running = false;
+        subscribers.remove(sub);
+    }
+
+    List<Subscriber> subscribers() { return subscribers; }
+
+    long published() { return claim.get(); }
+    long producerWaits() { return producerWaits.get(); }
+    long publishFailures() { return publishFailures.get(); }
+
+    private IllegalStateException lleno(String motivo) {
+        publishFailures.incrementAndGet();
+        return new IllegalStateException("[BUS:MEM] ring lleno topic=" + topic + ": " + motivo);
+    }
+
+    private long minSequence() {
+        long min = Long.MAX_VALUE;
+        for (Subscriber s : subscribers) min = Math.min(min, s.sequence.get());
+        // Sin suscriptores nadie retiene huecos
+        return min == Long.MAX_VALUE ? claim.get() : min;
+    }
+
+    // Mayor secuencia publicada de forma contigua a partir de "from" (puede haber huecos reservados
+    // por otro productor que aún no ha terminado de escribir)
+    private long highestPublished(long from, long upTo) {
+        for (long s = from; s <= upTo; s++) {
+            if (published.get((int) (s & mask)) != s) return s - 1;
+        }
+        return upTo;
+    }
+}
@@ -0,0 +1,55 @@
+package common.bus;
+
+// Opciones de una suscripción al bus.
+//  workers = 0  -> el handler se ejecuta en el propio hilo del poller (comportamiento clásico)
+//  workers = N  -> los mensajes se reparten en N hilos por clave: misma clave => mismo hilo y en orden,
+//                  claves distintas => en paralelo
+//  queueCapacity -> máximo de mensajes del topic pendientes en los workers; al llenarse se pausan
+//                   sus particiones en el consumer hasta que la cola baje a la mitad (0 = sin límite)
+//  routeKey      -> si no es null, solo interesan los mensajes con esa clave (p.ej. el CP del engine):
+//                   el bus lee únicamente la partición a la que va esa clave (asignación manual, sin
+//                   grupo) y descarta por clave, antes de decodificar, lo que comparta partición
+//  filter        -> filtro previo por clave/cabeceras (null = todo); lo descartado no se decodifica
+//  lane          -> carril: FAST (comandos, ciclo de vida de sesiones) o BULK (telemetría). Cada carril
+//                   tiene su propio consumer y su hilo de poll, así que la telemetría nunca retrasa
+//                   a los comandos
+//  shed          -> solo BULK: con la cola llena, los mensajes que cumplan este filtro se descartan
+//                   (sin decodificar) en vez de pausar el topic; el resto sigue entrando. null = nunca
+public record SubscribeOptions(int workers, int queueCapacity, String routeKey, RecordFilter filter,
+                               Lane lane, RecordFilter shed) {
+
+    public enum Lane { FAST, BULK }
+
+    public static final int DEFAULT_QUEUE = 10_000;
+
+    public static final SubscribeOptions INLINE = new SubscribeOptions(0, 0, null, null, Lane.FAST, null);
+
+    public SubscribeOptions {
+        if (workers < 0) throw new IllegalArgumentException("workers < 0");
+        if (queueCapacity < 0) throw new IllegalArgumentException("queueCapacity < 0");
+        if (lane == null) lane = Lane.FAST;
+    }
+
+    public static SubscribeOptions parallel(int workers) {
+        return new SubscribeOptions(Math.max(1, workers), DEFAULT_QUEUE, null, null, Lane.FAST, null);
+    }
+
+    public SubscribeOptions withQueue(int capacity) {
+        return new SubscribeOptions(workers, capacity, routeKey, filter, lane, shed);
+    }
+
+    public SubscribeOptions routedTo(String key) {
+        return new SubscribeOptions(workers, queueCapacity, key, filter, lane, shed);
+    }
+
+    public SubscribeOptions filtered(RecordFilter f) {
+        return new SubscribeOptions(workers, queueCapacity, routeKey, filter == null ? f : filter.and(f), lane, shed);
+    }
+
+    // Carril BULK; shed = qué se puede tirar bajo sobrecarga (null = nada, solo pausa)
+    public SubscribeOptions bulk(RecordFilter shed) {
+        return new SubscribeOptions(workers, queueCapacity, routeKey, filter, Lane.BULK, shed);
+    }
+
+    public boolean inline() { return workers == 0; }
+}
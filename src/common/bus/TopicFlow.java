@@ -0,0 +1,88 @@
+package common.bus;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Control de flujo de un topic: cuántos mensajes hay entregados a los workers y aún sin procesar.
+// El poller lo consulta para pausar/reanudar las particiones del topic; los workers solo decrementan.
+// Si el topic admite descartes (carril BULK con filtro shed) al llenarse la cola se empieza a tirar
+// lo descartable y solo se pausa si, aun así, la cola llega al doble de su capacidad.
+final class TopicFlow {
+    final String topic;
+    final int capacity;          // 0 = sin límite
+    final boolean shedding;
+    private final int pauseAt;
+    private final int resumeAt;  // histéresis: reanudamos al bajar a la mitad
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private volatile int maxDepth = 0;
+
+    // Solo los escribe el hilo del poller (volatile para leerlos desde las métricas)
+    private volatile boolean paused = false;
+    private volatile long pausedSince = 0L;
+    private volatile long pausedTotalNs = 0L;
+    private volatile long pauses = 0L;
+
+    TopicFlow(String topic, int capacity, boolean shedding) {
+        this.topic = topic;
+        this.capacity = capacity;
+        this.shedding = shedding && capacity > 0;
+        this.pauseAt = this.shedding ? capacity * 2 : capacity;
+        this.resumeAt = capacity / 2;
+    }
+
+    void enqueued() {
+        int d = depth.incrementAndGet();
+        if (d > maxDepth) maxDepth = d;
+    }
+
+    void done() {
+        depth.decrementAndGet();
+        delivered.incrementAndGet();
+    }
+
+    // Descartado sin decodificar (clave de otro destinatario)
+    void skipped() { skipped.incrementAndGet(); }
+
+    // Descartado por sobrecarga (carril BULK)
+    void shed() { shed.incrementAndGet(); }
+
+    boolean overloaded() { return shedding && depth.get() >= capacity; }
+
+    int depth() { return depth.get(); }
+
+    boolean paused() { return paused; }
+
+    boolean shouldPause()  { return capacity > 0 && !paused && depth.get() >= pauseAt; }
+    boolean shouldResume() { return paused && depth.get() <= resumeAt; }
+
+    void markPaused() {
+        paused = true;
+        pausedSince = System.nanoTime();
+        pauses++;
+    }
+
+    void markResumed() {
+        paused = false;
+        pausedTotalNs += System.nanoTime() - pausedSince;
+    }
+
+    JsonObject snapshot() {
+        long pausedNs = pausedTotalNs + (paused ? System.nanoTime() - pausedSince : 0L);
+        JsonObject o = new JsonObject();
+        o.addProperty("depth", depth.get());
+        o.addProperty("maxDepth", maxDepth);
+        o.addProperty("capacity", capacity);
+        o.addProperty("paused", paused);
+        o.addProperty("pauses", pauses);
+        o.addProperty("pausedMs", pausedNs / 1_000_000L);
+        o.addProperty("delivered", delivered.get());
+        o.addProperty("skipped", skipped.get());
+        if (shedding) o.addProperty("shed", shed.get());
+        return o;
+    }
+}
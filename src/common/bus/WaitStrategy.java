@@ -0,0 +1,64 @@
+package common.bus;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Qué hace un consumidor del ring cuando no hay nada nuevo que leer.
+//  busyspin -> latencia mínima, quema un core por suscriptor
+//  yielding -> gira un poco y luego cede el core
+//  sleeping -> gira, cede y acaba durmiendo ~100µs (buen compromiso para pruebas de carga)
+//  blocking -> espera en una Condition; el productor despierta solo si hay alguien esperando
+interface WaitStrategy {
+
+    // spins = veces seguidas que el consumidor no ha encontrado nada
+    void idle(int spins) throws InterruptedException;
+
+    // Lo llama el productor tras publicar
+    default void signal() {}
+
+    static WaitStrategy of(String name) {
+        return switch (name == null ? "" : name.trim().toLowerCase(Locale.ROOT)) {
+            case "busyspin" -> spins -> Thread.onSpinWait();
+            case "yielding" -> spins -> { if (spins < 100) Thread.onSpinWait(); else Thread.yield(); };
+            case "sleeping" -> spins -> {
+                if (spins < 100)      Thread.onSpinWait();
+                else if (spins < 200) Thread.yield();
+                else                  LockSupport.parkNanos(100_000L);
+                if (Thread.interrupted()) throw new InterruptedException();
+            };
+            default -> new Blocking();
+        };
+    }
+
+    final class Blocking implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition moreData = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public void idle(int spins) throws InterruptedException {
+            if (spins < 50) { Thread.onSpinWait(); return; }
+            lock.lock();
+            try {
+                waiters.incrementAndGet();
+                // timeout corto: evita quedarse dormido si el signal llegó justo antes del await
+                moreData.await(1, TimeUnit.MILLISECONDS);
+            } finally {
+                waiters.decrementAndGet();
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signal() {
+            if (waiters.get() == 0) return;
+            lock.lock();
+            try { moreData.signalAll(); }
+            finally { lock.unlock(); }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package common.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool de ByteBuffers por tamaños (potencias de 2, de 4 KB a 64 KB) para las conexiones Wire.
+// Buffers de heap: se leen/escriben sobre el array del socket (funciona con SO_TIMEOUT y con hilos
+// virtuales) sin copias intermedias. Solo se guardan las clases pequeñas (el caso normal: HB, REG_CP,
+// lotes); los buffers de frames grandes (hasta 10 MB) son raros y se dejan al GC, para que unos pocos
+// frames grandes, o un cliente sin autenticar que los manda, no dejen memoria retenida en el pool.
+public final class BufferPool {
+  public static final BufferPool SHARED = new BufferPool(64);
+
+  private static final int MIN_SHIFT = 12;   // 4 KB
+  private static final int MAX_SHIFT = 16;   // 64 KB
+
+  private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+  private final AtomicInteger[] sizes;
+  private final int maxPerClass;
+
+  @SuppressWarnings("unchecked")
+  public BufferPool(int maxPerClass) {
+    int n = MAX_SHIFT - MIN_SHIFT + 1;
+    this.free = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[n];
+    this.sizes = new AtomicInteger[n];
+    for (int i = 0; i < n; i++) { free[i] = new ConcurrentLinkedQueue<>(); sizes[i] = new AtomicInteger(); }
+    this.maxPerClass = maxPerClass;
+  }
+
+  // Buffer limpio (position=0, limit=capacity) de al menos min bytes
+  public ByteBuffer acquire(int min) {
+    int c = classOf(min);
+    if (c < 0) return ByteBuffer.allocate(min);
+    ByteBuffer b = free[c].poll();
+    if (b == null) return ByteBuffer.allocate(1 << (c + MIN_SHIFT));
+    sizes[c].decrementAndGet();
+    b.clear();
+    return b;
+  }
+
+  public void release(ByteBuffer b) {
+    if (b == null || !b.hasArray()) return;
+    int cap = b.capacity();
+    if (Integer.bitCount(cap) != 1) return;
+    int c = Integer.numberOfTrailingZeros(cap) - MIN_SHIFT;
+    if (c < 0 || c >= free.length) return;
+    // Límite aproximado: con carreras puede pasarse por poco, no importa
+    if (sizes[c].incrementAndGet() > maxPerClass) { sizes[c].decrementAndGet(); return; }
+    free[c].offer(b);
+  }
+
+  private static int classOf(int min) {
+    if (min > (1 << MAX_SHIFT)) return -1;
+    int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, min) - 1));
+    return shift - MIN_SHIFT;
+  }
+}
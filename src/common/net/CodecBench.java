@@ -0,0 +1,116 @@
+package common.net;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static common.net.Wire.obj;
+
+// Banco de pruebas de los codecs por tipo (MsgCodec) frente al camino genérico Wire.obj + Gson
+// (no lo usa ningún componente).
+//
+//   java -cp out:lib/* common.net.CodecBench [iteraciones] [rondas]
+//
+// Para HB, REG_CP y TEL mide codificar (a bytes UTF-8) y decodificar (de bytes a campos / árbol):
+// ns por mensaje y bytes asignados por mensaje (contador de asignación del hilo). Antes de cada medida
+// se hace una ronda de calentamiento igual; se informa la mejor de las rondas.
+public final class CodecBench {
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();   // como Wire
+    private static final com.sun.management.ThreadMXBean MX =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;   // que el JIT no se salte el trabajo
+
+    private interface Op { void run(int i); }
+
+    public static void main(String[] args) {
+        int iters  = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("[BENCH] Codecs Wire: iteraciones=" + iters + " rondas=" + rounds);
+        System.out.println("[BENCH] mensaje  operación   camino     ns/msg   bytes asignados/msg");
+
+        MsgCodec codec = new MsgCodec();
+        WireMsg into = new WireMsg();
+        ByteBuffer[] out = { ByteBuffer.allocate(512) };
+        JsonBytes.Grow grow = (full, extra) -> {
+            ByteBuffer nb = ByteBuffer.allocate(Math.max(full.capacity() * 2, full.position() + extra));
+            full.flip();
+            nb.put(full);
+            return nb;
+        };
+
+        long ts = System.currentTimeMillis();
+        String cp = "CP-000123", loc = "Calle Mayor 1, Alicante", ses = "S-0000000042", src = "ENGINE";
+
+        // ---- HB ----
+        byte[] hb = GSON.toJson(obj("type","HB","ts",ts,"cp",cp,"ok",true)).getBytes(StandardCharsets.UTF_8);
+        run("HB", "codificar", "Wire+Gson", iters, rounds,
+            i -> sink += GSON.toJson(obj("type","HB","ts",ts + i,"cp",cp,"ok",true)).getBytes(StandardCharsets.UTF_8).length);
+        run("HB", "codificar", "MsgCodec", iters, rounds,
+            i -> { out[0].clear(); out[0] = codec.hb(out[0], grow, ts + i, cp, true); sink += out[0].position(); });
+        run("HB", "decodificar", "Wire+Gson", iters, rounds,
+            i -> sink += parse(hb).get("ts").getAsLong());
+        run("HB", "decodificar", "MsgCodec", iters, rounds,
+            i -> sink += codec.read(hb, 0, hb.length, into).ts);
+
+        // ---- REG_CP ----
+        byte[] reg = GSON.toJson(obj("type","REG_CP","ts",ts,"cp",cp,"loc",loc,"price",0.35))
+                         .getBytes(StandardCharsets.UTF_8);
+        run("REG_CP", "codificar", "Wire+Gson", iters, rounds,
+            i -> sink += GSON.toJson(obj("type","REG_CP","ts",ts + i,"cp",cp,"loc",loc,"price",0.35))
+                             .getBytes(StandardCharsets.UTF_8).length);
+        run("REG_CP", "codificar", "MsgCodec", iters, rounds,
+            i -> { out[0].clear(); out[0] = codec.regCp(out[0], grow, ts + i, cp, loc, 0.35); sink += out[0].position(); });
+        run("REG_CP", "decodificar", "Wire+Gson", iters, rounds,
+            i -> sink += (long) parse(reg).get("price").getAsDouble());
+        run("REG_CP", "decodificar", "MsgCodec", iters, rounds,
+            i -> sink += (long) codec.read(reg, 0, reg.length, into).price);
+
+        // ---- TEL ----
+        byte[] tel = GSON.toJson(obj("type","TEL","ts",ts,"session",ses,"cp",cp,
+                                     "power",7.4,"kwh",12.345,"eur",4.32,"src",src)).getBytes(StandardCharsets.UTF_8);
+        run("TEL", "codificar", "Wire+Gson", iters, rounds,
+            i -> sink += GSON.toJson(obj("type","TEL","ts",ts + i,"session",ses,"cp",cp,
+                                         "power",7.4,"kwh",12.345 + i,"eur",4.32,"src",src))
+                             .getBytes(StandardCharsets.UTF_8).length);
+        run("TEL", "codificar", "MsgCodec", iters, rounds,
+            i -> { out[0].clear(); out[0] = codec.tel(out[0], grow, ts + i, ses, cp, 7.4, 12.345 + i, 4.32, src);
+                   sink += out[0].position(); });
+        run("TEL", "decodificar", "Wire+Gson", iters, rounds,
+            i -> sink += (long) parse(tel).get("kwh").getAsDouble());
+        run("TEL", "decodificar", "MsgCodec", iters, rounds,
+            i -> sink += (long) codec.read(tel, 0, tel.length, into).kwh);
+
+        if (sink == 42) System.out.println();   // solo para usar sink
+    }
+
+    // Lo que hace Wire.recv con el payload ya leído
+    private static JsonObject parse(byte[] b) {
+        return JsonParser.parseString(new String(b, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static void run(String msg, String op, String camino, int iters, int rounds, Op body) {
+        long bestNs = Long.MAX_VALUE, bestAlloc = Long.MAX_VALUE;
+        long tid = Thread.currentThread().threadId();
+        for (int r = -1; r < rounds; r++) {   // r = -1: calentamiento
+            long a0 = MX.getThreadAllocatedBytes(tid);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iters; i++) body.run(i);
+            long ns = System.nanoTime() - t0;
+            long alloc = MX.getThreadAllocatedBytes(tid) - a0;
+            if (r < 0) continue;
+            bestNs = Math.min(bestNs, ns);
+            bestAlloc = Math.min(bestAlloc, alloc);
+        }
+        System.out.printf(Locale.ROOT, "[BENCH] %-8s %-11s %-10s %7.1f   %8.1f%n",
+                msg, op, camino, bestNs / (double) iters, bestAlloc / (double) iters);
+    }
+}
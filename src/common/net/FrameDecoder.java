@@ -0,0 +1,105 @@
+package common.net;
+
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+
+// Decodificador incremental del formato Frame (STX | payload | ETX | LRC) sobre un ByteBuffer.
+// Admite lecturas parciales y varios frames por lectura, calcula el LRC según avanza (sin volver a
+// recorrer lo ya visto) y no copia el payload: next() deja sus límites dentro del propio buffer.
+//
+// Si algo llega mal (LRC incorrecto, un STX en mitad de un frame porque se perdió el ETX, basura
+// entre frames, payload demasiado largo) se descarta ese frame y se resincroniza en el siguiente STX,
+// sin cerrar la conexión. El payload JSON nunca contiene 0x02/0x03 (los controles van escapados y los
+// bytes UTF-8 multibyte son >= 0x80), así que un STX/ETX dentro de un frame siempre es un error.
+public final class FrameDecoder {
+  private final int maxPayload;
+
+  // Estado del frame en curso, relativo a buf.position() (vale aunque el llamante compacte el buffer)
+  private boolean inFrame = false;
+  private int scanned = 0;     // bytes del frame ya examinados (incluido el STX)
+  private byte lrc = 0;
+
+  private int payloadStart, payloadEnd;
+
+  // Métricas
+  private long frames, lrcErrors, resyncs, droppedBytes;
+
+  public FrameDecoder(int maxPayload) { this.maxPayload = maxPayload; }
+
+  // Busca un frame completo en [position, limit). true: payload en [payloadStart(), payloadEnd()) y
+  // position justo tras el LRC. false: falta por leer; position queda al inicio del frame en curso
+  // (o en limit si solo había basura) para que el llamante compacte y lea más.
+  public boolean next(ByteBuffer buf) {
+    int lim = buf.limit();
+    outer:
+    for (;;) {
+      if (!inFrame) {
+        int from = buf.position();
+        int i = from;
+        while (i < lim && buf.get(i) != Frame.STX) i++;
+        if (i > from) { droppedBytes += i - from; resyncs++; }
+        buf.position(i);
+        if (i == lim) return false;
+        inFrame = true;
+        scanned = 1;
+        lrc = 0;
+      }
+
+      int start = buf.position();
+      int i = start + scanned;
+      while (i < lim) {
+        byte b = buf.get(i);
+        if (b == Frame.ETX) {
+          if (i + 1 >= lim) { scanned = i - start; return false; }   // falta el LRC
+          if (buf.get(i + 1) == lrc) {
+            payloadStart = start + 1;
+            payloadEnd = i;
+            buf.position(i + 2);
+            inFrame = false;
+            frames++;
+            return true;
+          }
+          // LRC incorrecto: fuera el frame, buscamos el siguiente STX
+          lrcErrors++;
+          droppedBytes += i + 2 - start;
+          buf.position(i + 2);
+          inFrame = false;
+          continue outer;
+        }
+        if (b == Frame.STX) {
+          // Se perdió el ETX: el frame anterior queda truncado, empieza uno nuevo aquí
+          resyncs++;
+          droppedBytes += i - start;
+          buf.position(i);
+          start = i;
+          lrc = 0;
+          i++;
+          continue;
+        }
+        lrc ^= b;
+        i++;
+        if (i - start - 1 > maxPayload) {
+          resyncs++;
+          droppedBytes += i - start;
+          buf.position(i);
+          inFrame = false;
+          continue outer;
+        }
+      }
+      scanned = i - start;
+      return false;
+    }
+  }
+
+  public int payloadStart() { return payloadStart; }
+  public int payloadEnd()   { return payloadEnd; }
+
+  public JsonObject stats() {
+    JsonObject o = new JsonObject();
+    o.addProperty("frames", frames);
+    o.addProperty("lrcErrors", lrcErrors);
+    o.addProperty("resyncs", resyncs);
+    o.addProperty("droppedBytes", droppedBytes);
+    return o;
+  }
+}
@@ -0,0 +1,23 @@
+package common.net;
+
+import java.nio.ByteBuffer;
+
+// Escritura del formato Frame (STX | payload | ETX | LRC) directamente en un ByteBuffer:
+// begin() pone el STX, el llamante escribe el payload y seal() calcula el LRC y cierra el frame.
+public final class FrameEncoder {
+  private FrameEncoder() {}
+
+  // Devuelve dónde empieza el payload
+  public static int begin(ByteBuffer buf) {
+    buf.put(Frame.STX);
+    return buf.position();
+  }
+
+  // Cierra el frame cuyo payload va de payloadStart a position. Necesita 2 bytes libres.
+  public static void seal(ByteBuffer buf, int payloadStart) {
+    byte lrc = 0;
+    for (int i = payloadStart, e = buf.position(); i < e; i++) lrc ^= buf.get(i);
+    buf.put(Frame.ETX);
+    buf.put(lrc);
+  }
+}
@@ -0,0 +1,521 @@
+package common.net;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// JSON <-> UTF-8 directamente sobre el array de un ByteBuffer, sin Reader/Writer, sin String
+// intermedio y sin el char[] que crea cada JsonReader de Gson. Una instancia por conexión (no es
+// thread-safe): guarda un char[] de trabajo y una caché de cadenas cortas ASCII ("type", "HB",
+// "cp", el id del CP...) que en heartbeats se repiten en cada frame.
+//
+// El resultado es el mismo árbol JsonObject que daría Gson; al escribir se sigue su formato
+// (sin escapado HTML, los miembros null se omiten).
+final class JsonBytes {
+  interface Grow { ByteBuffer grow(ByteBuffer full, int extra); }
+
+  private static final int CACHE = 64;          // entradas (potencia de 2)
+  private static final int CACHE_MAX_LEN = 32;  // solo cadenas cortas
+  private static final JsonPrimitive TRUE = new JsonPrimitive(Boolean.TRUE), FALSE = new JsonPrimitive(Boolean.FALSE);
+
+  private byte[] a;
+  private int p, end;
+  // Se crean al primer uso: con decenas de miles de conexiones, la que solo escribe no paga nada
+  private char[] scratch;
+  private String[] cacheStr;
+  private byte[][] cacheBytes;
+
+  // ---------- lectura ----------
+
+  JsonElement parse(ByteBuffer buf, int from, int to) {
+    return parse(buf.array(), buf.arrayOffset() + from, buf.arrayOffset() + to);
+  }
+
+  JsonElement parse(byte[] arr, int from, int to) {
+    a = arr;
+    p = from;
+    end = to;
+    try {
+      JsonElement e = value();
+      ws();
+      if (p != end) throw error("Datos tras el JSON");
+      return e;
+    } catch (ArrayIndexOutOfBoundsException oob) {
+      throw error("JSON incompleto");
+    } finally {
+      a = null;
+    }
+  }
+
+  // ---------- lectura plana (codecs por tipo, ver MsgCodec) ----------
+
+  // Recibe los campos de un objeto plano. Si devuelve false (campo que no conoce) se abandona.
+  interface FlatSink {
+    boolean str(String key, String v);
+    boolean num(String key, long v);
+    boolean dbl(String key, double v);
+    boolean bool(String key, boolean v);
+  }
+
+  private static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  // Objeto de un nivel con valores primitivos, sin árbol ni boxing. false si no es plano (anidados,
+  // null, sink que rechaza un campo): el llamante vuelve entonces a parse().
+  boolean parseFlat(byte[] arr, int from, int to, FlatSink sink) {
+    a = arr;
+    p = from;
+    end = to;
+    try {
+      ws();
+      if (p >= end || a[p] != '{') return false;
+      p++;
+      ws();
+      if (a[p] == '}') { p++; ws(); return p == end; }
+      for (;;) {
+        ws();
+        if (a[p] != '"') return false;
+        p++;
+        String k = string();
+        ws();
+        if (a[p++] != ':') return false;
+        ws();
+        byte c = a[p];
+        boolean ok;
+        if (c == '"') { p++; ok = sink.str(k, string()); }
+        else if (c == 't') { literal("true");  ok = sink.bool(k, true); }
+        else if (c == 'f') { literal("false"); ok = sink.bool(k, false); }
+        else if (c == '-' || (c >= '0' && c <= '9')) ok = flatNumber(k, sink);
+        else return false;
+        if (!ok) return false;
+        ws();
+        c = a[p++];
+        if (c == '}') { ws(); return p == end; }
+        if (c != ',') return false;
+      }
+    } catch (RuntimeException bad) {
+      return false;   // el camino genérico dará el error con detalle
+    } finally {
+      a = null;
+    }
+  }
+
+  private boolean flatNumber(String k, FlatSink sink) {
+    int start = p;
+    boolean neg = a[p] == '-';
+    if (neg) p++;
+    long mant = 0;
+    int digits = 0, frac = -1;
+    while (p < end) {
+      byte c = a[p];
+      if (c >= '0' && c <= '9') { mant = mant * 10 + (c - '0'); digits++; if (frac >= 0) frac++; p++; }
+      else if (c == '.' && frac < 0) { frac = 0; p++; }
+      else break;
+    }
+    boolean exp = p < end && (a[p] == 'e' || a[p] == 'E');
+    if (digits == 0) return false;
+    if (!exp && frac < 0 && digits <= 18) return sink.num(k, neg ? -mant : mant);
+    if (!exp && frac >= 0 && digits <= 15 && frac < POW10.length) {
+      // Mantisa y 10^frac exactos en double => una sola división correctamente redondeada
+      // (mismo resultado que Double.parseDouble, sin crear el String)
+      double v = mant / POW10[frac];
+      return sink.dbl(k, neg ? -v : v);
+    }
+    p = start;
+    JsonPrimitive n = number();
+    return sink.dbl(k, n.getAsDouble());
+  }
+
+  private JsonElement value() {
+    ws();
+    if (p >= end) throw error("JSON incompleto");
+    byte c = a[p];
+    switch (c) {
+      case '{': return object();
+      case '[': return array();
+      case '"': p++; return new JsonPrimitive(string());
+      case 't': literal("true");  return TRUE;
+      case 'f': literal("false"); return FALSE;
+      case 'n': literal("null");  return JsonNull.INSTANCE;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) return number();
+        throw error("Carácter inesperado '" + (char) c + "'");
+    }
+  }
+
+  private JsonObject object() {
+    p++;   // {
+    JsonObject o = new JsonObject();
+    ws();
+    if (a[p] == '}') { p++; return o; }
+    for (;;) {
+      ws();
+      if (a[p] != '"') throw error("Se esperaba nombre");
+      p++;
+      String k = string();
+      ws();
+      if (a[p++] != ':') throw error("Se esperaba ':'");
+      o.add(k, value());
+      ws();
+      byte c = a[p++];
+      if (c == '}') return o;
+      if (c != ',') throw error("Se esperaba ',' o '}'");
+    }
+  }
+
+  private JsonArray array() {
+    p++;   // [
+    JsonArray arr = new JsonArray();
+    ws();
+    if (a[p] == ']') { p++; return arr; }
+    for (;;) {
+      arr.add(value());
+      ws();
+      byte c = a[p++];
+      if (c == ']') return arr;
+      if (c != ',') throw error("Se esperaba ',' o ']'");
+    }
+  }
+
+  // Tras la comilla inicial; deja p después de la final
+  private String string() {
+    int start = p;
+    int h = 0;
+    // Camino rápido: ASCII sin escapes
+    while (p < end) {
+      byte c = a[p];
+      if (c == '"') {
+        int len = p - start;
+        p++;
+        return len <= CACHE_MAX_LEN ? cached(start, len, h) : new String(a, start, len, StandardCharsets.ISO_8859_1);
+      }
+      if (c == '\\' || c < 0) break;
+      h = 31 * h + c;
+      p++;
+    }
+    return slowString(start);
+  }
+
+  private String cached(int start, int len, int h) {
+    if (cacheStr == null) { cacheStr = new String[CACHE]; cacheBytes = new byte[CACHE][]; }
+    int i = (h ^ (h >>> 16)) & (CACHE - 1);
+    byte[] kb = cacheBytes[i];
+    if (kb != null && kb.length == len && java.util.Arrays.equals(kb, 0, len, a, start, start + len)) return cacheStr[i];
+    String s = new String(a, start, len, StandardCharsets.ISO_8859_1);
+    cacheBytes[i] = java.util.Arrays.copyOfRange(a, start, start + len);
+    cacheStr[i] = s;
+    return s;
+  }
+
+  // Escapes y/o UTF-8 multibyte
+  private String slowString(int start) {
+    p = start;
+    int n = 0;
+    if (scratch == null) scratch = new char[128];
+    for (;;) {
+      if (p >= end) throw error("Cadena sin cerrar");
+      if (n + 2 > scratch.length) scratch = java.util.Arrays.copyOf(scratch, scratch.length * 2);
+      int c = a[p++] & 0xFF;
+      if (c == '"') return new String(scratch, 0, n);
+      if (c == '\\') {
+        byte e = a[p++];
+        switch (e) {
+          case '"':  scratch[n++] = '"'; break;
+          case '\\': scratch[n++] = '\\'; break;
+          case '/':  scratch[n++] = '/'; break;
+          case 'b':  scratch[n++] = '\b'; break;
+          case 'f':  scratch[n++] = '\f'; break;
+          case 'n':  scratch[n++] = '\n'; break;
+          case 'r':  scratch[n++] = '\r'; break;
+          case 't':  scratch[n++] = '\t'; break;
+          case 'u': {
+            if (p + 4 > end) throw error("Escape \\u incompleto");
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+              int d = Character.digit(a[p++], 16);
+              if (d < 0) throw error("Escape \\u inválido");
+              v = (v << 4) | d;
+            }
+            scratch[n++] = (char) v;
+            break;
+          }
+          default: throw error("Escape inválido");
+        }
+      } else if (c < 0x80) {
+        scratch[n++] = (char) c;
+      } else {
+        int need, cp;
+        if ((c & 0xE0) == 0xC0)      { need = 1; cp = c & 0x1F; }
+        else if ((c & 0xF0) == 0xE0) { need = 2; cp = c & 0x0F; }
+        else if ((c & 0xF8) == 0xF0) { need = 3; cp = c & 0x07; }
+        else { scratch[n++] = (char) 0xFFFD; continue; }
+        boolean bad = p + need > end;
+        for (int i = 0; i < need && !bad; i++) {
+          int b = a[p];
+          if ((b & 0xC0) != 0x80) { bad = true; break; }
+          cp = (cp << 6) | (b & 0x3F);
+          p++;
+        }
+        if (bad || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+          scratch[n++] = (char) 0xFFFD;
+        } else if (cp < 0x10000) {
+          scratch[n++] = (char) cp;
+        } else {
+          scratch[n++] = Character.highSurrogate(cp);
+          scratch[n++] = Character.lowSurrogate(cp);
+        }
+      }
+    }
+  }
+
+  private JsonPrimitive number() {
+    int start = p;
+    boolean integral = true;
+    while (p < end) {
+      byte c = a[p];
+      if (c >= '0' && c <= '9' || c == '-') { p++; continue; }
+      if (c == '.' || c == 'e' || c == 'E' || c == '+') { integral = false; p++; continue; }
+      break;
+    }
+    int len = p - start;
+    if (integral && len <= 18) {
+      // Enteros (ts, contadores): sin String intermedio
+      boolean neg = a[start] == '-';
+      if (len == (neg ? 1 : 0)) throw error("Número inválido");
+      long v = 0;
+      for (int i = neg ? start + 1 : start; i < p; i++) {
+        int d = a[i] - '0';
+        if (d < 0 || d > 9) throw error("Número inválido");
+        v = v * 10 + d;
+      }
+      return new JsonPrimitive(neg ? -v : v);
+    }
+    try {
+      return new JsonPrimitive(new BigDecimal(new String(a, start, len, StandardCharsets.ISO_8859_1)));
+    } catch (NumberFormatException nfe) {
+      throw error("Número inválido");
+    }
+  }
+
+  private void literal(String lit) {
+    for (int i = 0; i < lit.length(); i++) {
+      if (p >= end || a[p++] != lit.charAt(i)) throw error("Literal inválido");
+    }
+  }
+
+  private void ws() {
+    while (p < end) {
+      byte c = a[p];
+      if (c == ' ' || c == '\n' || c == '\r' || c == '\t') p++; else break;
+    }
+  }
+
+  private JsonSyntaxException error(String msg) {
+    return new JsonSyntaxException(msg + " (offset " + p + ")");
+  }
+
+  // ---------- escritura ----------
+
+  private ByteBuffer out;
+  private Grow grow;
+
+  // Escribe e en out a partir de su position; devuelve el buffer final (puede cambiar si no cabía)
+  ByteBuffer write(JsonElement e, ByteBuffer out, Grow grow) {
+    this.out = out;
+    this.grow = grow;
+    try {
+      element(e);
+      return this.out;
+    } finally {
+      this.out = null;
+      this.grow = null;
+    }
+  }
+
+  // ---------- escritura por campos (codecs por tipo) ----------
+
+  private boolean firstField;
+
+  void beginObject(ByteBuffer out, Grow grow) {
+    this.out = out;
+    this.grow = grow;
+    this.firstField = true;
+    put('{');
+  }
+
+  void field(String k, String v) {
+    if (v == null) return;   // como Gson: los null no se escriben
+    name(k);
+    str(v);
+  }
+
+  void field(String k, long v) { name(k); number(v); }
+
+  void field(String k, double v) {
+    name(k);
+    if (Double.isNaN(v) || Double.isInfinite(v)) throw new IllegalArgumentException("Número no válido en JSON: " + v);
+    raw(Double.toString(v));   // igual que Gson con un Double
+  }
+
+  void field(String k, boolean v) { name(k); raw(v ? "true" : "false"); }
+
+  // Array de objetos planos dentro del objeto en curso: beginArray, (beginElement, field..., endElement)*, endArray
+  void beginArray(String k) { name(k); put('['); firstField = true; }
+
+  void beginElement() {
+    if (!firstField) put(',');
+    put('{');
+    firstField = true;
+  }
+
+  void endElement() { put('}'); firstField = false; }
+
+  void endArray() { put(']'); firstField = false; }
+
+  ByteBuffer endObject() {
+    put('}');
+    ByteBuffer b = out;
+    out = null;
+    grow = null;
+    return b;
+  }
+
+  private void name(String k) {
+    if (!firstField) put(',');
+    firstField = false;
+    str(k);
+    put(':');
+  }
+
+  private void element(JsonElement e) {
+    if (e == null || e.isJsonNull()) {
+      raw("null");
+    } else if (e.isJsonObject()) {
+      put('{');
+      boolean first = true;
+      for (Map.Entry<String, JsonElement> m : e.getAsJsonObject().entrySet()) {
+        if (m.getValue().isJsonNull()) continue;   // como Gson con serializeNulls=false
+        if (!first) put(',');
+        first = false;
+        str(m.getKey());
+        put(':');
+        element(m.getValue());
+      }
+      put('}');
+    } else if (e.isJsonArray()) {
+      put('[');
+      boolean first = true;
+      for (JsonElement x : e.getAsJsonArray()) {
+        if (!first) put(',');
+        first = false;
+        element(x);
+      }
+      put(']');
+    } else {
+      JsonPrimitive pr = e.getAsJsonPrimitive();
+      if (pr.isString()) str(pr.getAsString());
+      else if (pr.isBoolean()) raw(pr.getAsBoolean() ? "true" : "false");
+      else number(pr.getAsNumber());
+    }
+  }
+
+  private void number(Number n) {
+    if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+      number(n.longValue());
+      return;
+    }
+    String s = n.toString();
+    if (n instanceof Double d && (d.isNaN() || d.isInfinite())) throw new IllegalArgumentException("Número no válido en JSON: " + s);
+    if (n instanceof Float f && (f.isNaN() || f.isInfinite())) throw new IllegalArgumentException("Número no válido en JSON: " + s);
+    raw(s);
+  }
+
+  private void number(long v) {
+    if (v == Long.MIN_VALUE) { raw(Long.toString(v)); return; }
+    ensure(20);
+    if (v < 0) { out.put((byte) '-'); v = -v; }
+    int digits = 1;
+    for (long t = v; t >= 10; t /= 10) digits++;
+    int pos = out.position() + digits;
+    for (int i = 1; i <= digits; i++) { out.put(pos - i, (byte) ('0' + (v % 10))); v /= 10; }
+    out.position(pos);
+  }
+
+  private void str(String s) {
+    int n = s.length();
+    ensure(n + 2);
+    out.put((byte) '"');
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+        if (!out.hasRemaining()) ensure(1);
+        out.put((byte) c);
+        continue;
+      }
+      ensure(12);
+      switch (c) {
+        case '"':  out.put((byte) '\\').put((byte) '"'); break;
+        case '\\': out.put((byte) '\\').put((byte) '\\'); break;
+        case '\n': out.put((byte) '\\').put((byte) 'n'); break;
+        case '\r': out.put((byte) '\\').put((byte) 'r'); break;
+        case '\t': out.put((byte) '\\').put((byte) 't'); break;
+        case '\b': out.put((byte) '\\').put((byte) 'b'); break;
+        case '\f': out.put((byte) '\\').put((byte) 'f'); break;
+        default:
+          if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+            unicodeEscape(c);
+          } else if (c < 0x800) {
+            out.put((byte) (0xC0 | (c >> 6)));
+            out.put((byte) (0x80 | (c & 0x3F)));
+          } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            out.put((byte) (0xF0 | (cp >> 18)));
+            out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            out.put((byte) (0x80 | (cp & 0x3F)));
+          } else if (Character.isSurrogate(c)) {
+            out.put((byte) '?');   // sustituto suelto
+          } else {
+            out.put((byte) (0xE0 | (c >> 12)));
+            out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            out.put((byte) (0x80 | (c & 0x3F)));
+          }
+      }
+    }
+    ensure(1);
+    out.put((byte) '"');
+  }
+
+  private void unicodeEscape(char c) {
+    final String hex = "0123456789abcdef";
+    out.put((byte) '\\').put((byte) 'u');
+    out.put((byte) hex.charAt((c >> 12) & 0xF));
+    out.put((byte) hex.charAt((c >> 8) & 0xF));
+    out.put((byte) hex.charAt((c >> 4) & 0xF));
+    out.put((byte) hex.charAt(c & 0xF));
+  }
+
+  private void raw(String s) {
+    int n = s.length();
+    ensure(n);
+    for (int i = 0; i < n; i++) out.put((byte) s.charAt(i));
+  }
+
+  private void put(char c) {
+    if (!out.hasRemaining()) ensure(1);
+    out.put((byte) c);
+  }
+
+  private void ensure(int n) {
+    if (out.remaining() < n) out = grow.grow(out, n);
+  }
+}
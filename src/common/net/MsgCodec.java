@@ -0,0 +1,191 @@
+package common.net;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+
+// Codecs escritos a mano para los mensajes fijos y frecuentes: HB y REG_CP (CPMonitor -> CENTRAL)
+// y TEL (ENGINE -> CENTRAL, dentro del sobre ENC). Escriben y leen los campos directamente sobre los
+// bytes: sin Wire.obj (varargs + boxing), sin árbol JsonObject y sin pasada de Gson. El JSON que
+// producen es idéntico, campo a campo y en el mismo orden, al de Wire.obj(...) + Gson, así que el
+// otro extremo puede seguir usando el camino genérico. HB_BATCH solo tiene escritor: lleva un array y
+// se lee por el camino genérico.
+//
+// Cualquier otro tipo, o un HB/REG_CP/TEL con forma inesperada, va por el camino genérico (árbol).
+// Una instancia por conexión/hilo: no es thread-safe.
+public final class MsgCodec {
+  public static final String HB = "HB", REG_CP = "REG_CP", TEL = "TEL", HB_BATCH = "HB_BATCH";
+
+  static final int F_TYPE = 1, F_TS = 1 << 1, F_CP = 1 << 2, F_OK = 1 << 3, F_LOC = 1 << 4,
+                   F_PRICE = 1 << 5, F_SESSION = 1 << 6, F_POWER = 1 << 7, F_KWH = 1 << 8,
+                   F_EUR = 1 << 9, F_SRC = 1 << 10;
+
+  private static final int REQ_HB  = F_TYPE | F_CP | F_OK;
+  private static final int REQ_REG = F_TYPE | F_CP | F_LOC | F_PRICE;
+  private static final int REQ_TEL = F_TYPE | F_SESSION | F_CP | F_KWH | F_EUR;
+
+  private final JsonBytes jb = new JsonBytes();
+  private final Sink sink = new Sink();
+  private ByteBuffer scratch;   // para tel(...) -> byte[]
+
+  // El JsonBytes de este codec, para el camino genérico de la misma conexión
+  JsonBytes json() { return jb; }
+
+  // ---------- lectura ----------
+
+  public WireMsg read(byte[] a, int from, int to, WireMsg m) {
+    m.reset();
+    sink.m = m;
+    boolean flat = jb.parseFlat(a, from, to, sink);
+    sink.m = null;
+    if (flat && m.type != null && complete(m)) return m;
+
+    // Genérico: árbol completo (y si es de un tipo conocido, también los campos)
+    JsonElement e = jb.parse(a, from, to);
+    JsonObject o = e.getAsJsonObject();
+    m.reset();
+    m.json = o;
+    fromTree(o, m);
+    return m;
+  }
+
+  WireMsg read(ByteBuffer buf, int from, int to, WireMsg m) {
+    return read(buf.array(), buf.arrayOffset() + from, buf.arrayOffset() + to, m);
+  }
+
+  private static boolean complete(WireMsg m) {
+    return switch (m.type) {
+      case HB     -> (m.seen & REQ_HB) == REQ_HB;
+      case REG_CP -> (m.seen & REQ_REG) == REQ_REG;
+      case TEL    -> (m.seen & REQ_TEL) == REQ_TEL;
+      default     -> false;
+    };
+  }
+
+  private static void fromTree(JsonObject o, WireMsg m) {
+    try {
+      if (o.has("type")) m.type = o.get("type").getAsString();
+      if (m.type == null || !(HB.equals(m.type) || REG_CP.equals(m.type) || TEL.equals(m.type))) return;
+      if (o.has("ts"))      { m.ts = o.get("ts").getAsLong(); m.seen |= F_TS; }
+      if (o.has("cp"))      { m.cp = o.get("cp").getAsString(); m.seen |= F_CP; }
+      if (o.has("ok"))      { m.ok = o.get("ok").getAsBoolean(); m.seen |= F_OK; }
+      if (o.has("loc"))     { m.loc = o.get("loc").getAsString(); m.seen |= F_LOC; }
+      if (o.has("price"))   { m.price = o.get("price").getAsDouble(); m.seen |= F_PRICE; }
+      if (o.has("session")) { m.session = o.get("session").getAsString(); m.seen |= F_SESSION; }
+      if (o.has("power"))   { m.power = o.get("power").getAsDouble(); m.seen |= F_POWER; }
+      if (o.has("kwh"))     { m.kwh = o.get("kwh").getAsDouble(); m.seen |= F_KWH; }
+      if (o.has("eur"))     { m.eur = o.get("eur").getAsDouble(); m.seen |= F_EUR; }
+      if (o.has("src"))     { m.src = o.get("src").getAsString(); m.seen |= F_SRC; }
+    } catch (RuntimeException ignore) {
+      // tipos raros: el handler tirará de json
+    }
+  }
+
+  // Campos de los tipos conocidos; cualquier otro nombre o tipo de valor => camino genérico
+  private static final class Sink implements JsonBytes.FlatSink {
+    WireMsg m;
+
+    @Override public boolean str(String k, String v) {
+      switch (k) {
+        case "type"    -> { m.type = v; m.seen |= F_TYPE; }
+        case "cp"      -> { m.cp = v; m.seen |= F_CP; }
+        case "loc"     -> { m.loc = v; m.seen |= F_LOC; }
+        case "session" -> { m.session = v; m.seen |= F_SESSION; }
+        case "src"     -> { m.src = v; m.seen |= F_SRC; }
+        default        -> { return false; }
+      }
+      return true;
+    }
+
+    @Override public boolean num(String k, long v) {
+      if ("ts".equals(k)) { m.ts = v; m.seen |= F_TS; return true; }
+      return dbl(k, v);
+    }
+
+    @Override public boolean dbl(String k, double v) {
+      switch (k) {
+        case "price" -> { m.price = v; m.seen |= F_PRICE; }
+        case "power" -> { m.power = v; m.seen |= F_POWER; }
+        case "kwh"   -> { m.kwh = v; m.seen |= F_KWH; }
+        case "eur"   -> { m.eur = v; m.seen |= F_EUR; }
+        default      -> { return false; }
+      }
+      return true;
+    }
+
+    @Override public boolean bool(String k, boolean v) {
+      if ("ok".equals(k)) { m.ok = v; m.seen |= F_OK; return true; }
+      return false;
+    }
+  }
+
+  // ---------- escritura (mismo orden de campos que las llamadas Wire.obj de siempre) ----------
+
+  ByteBuffer hb(ByteBuffer out, JsonBytes.Grow grow, long ts, String cp, boolean ok) {
+    jb.beginObject(out, grow);
+    jb.field("type", HB);
+    jb.field("ts", ts);
+    jb.field("cp", cp);
+    jb.field("ok", ok);
+    return jb.endObject();
+  }
+
+  ByteBuffer regCp(ByteBuffer out, JsonBytes.Grow grow, long ts, String cp, String loc, double price) {
+    jb.beginObject(out, grow);
+    jb.field("type", REG_CP);
+    jb.field("ts", ts);
+    jb.field("cp", cp);
+    jb.field("loc", loc);
+    jb.field("price", price);
+    return jb.endObject();
+  }
+
+  ByteBuffer tel(ByteBuffer out, JsonBytes.Grow grow, long ts, String session, String cp,
+                 double power, double kwh, double eur, String src) {
+    jb.beginObject(out, grow);
+    jb.field("type", TEL);
+    jb.field("ts", ts);
+    jb.field("session", session);
+    jb.field("cp", cp);
+    jb.field("power", power);
+    jb.field("kwh", kwh);
+    jb.field("eur", eur);
+    jb.field("src", src);
+    return jb.endObject();
+  }
+
+  // HB de varios CP en un frame (concentrador de un depósito): items = [{cp, ok, ts}], n primeras posiciones
+  ByteBuffer hbBatch(ByteBuffer out, JsonBytes.Grow grow, long ts, String[] cps, boolean[] oks, long[] tss, int n) {
+    jb.beginObject(out, grow);
+    jb.field("type", HB_BATCH);
+    jb.field("ts", ts);
+    jb.beginArray("items");
+    for (int i = 0; i < n; i++) {
+      jb.beginElement();
+      jb.field("cp", cps[i]);
+      jb.field("ok", oks[i]);
+      jb.field("ts", tss[i]);
+      jb.endElement();
+    }
+    jb.endArray();
+    return jb.endObject();
+  }
+
+  // TEL como bytes UTF-8 (para cifrarlo y meterlo en el sobre ENC)
+  public byte[] tel(long ts, String session, String cp, double power, double kwh, double eur, String src) {
+    if (scratch == null) scratch = ByteBuffer.allocate(512);
+    scratch.clear();
+    scratch = tel(scratch, MsgCodec::grow, ts, session, cp, power, kwh, eur, src);
+    byte[] out = new byte[scratch.position()];
+    scratch.get(0, out);
+    return out;
+  }
+
+  private static ByteBuffer grow(ByteBuffer full, int extra) {
+    ByteBuffer nb = ByteBuffer.allocate(Math.max(full.capacity() * 2, full.position() + extra));
+    full.flip();
+    nb.put(full);
+    return nb;
+  }
+}
@@ -7,6 +7,8 @@ import java.nio.charset.StandardCharsets;
 public final class Wire {
   private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
 
+  // send/recv sobre streams: crean String y byte[] por mensaje. Para conexiones de larga duración
+  // (CPMonitor <-> CENTRAL) usar WireConn, mismo formato con buffers reutilizables.
   public static void send(DataOutputStream out, JsonObject obj) throws IOException {
     byte[] bytes = GSON.toJson(obj).getBytes(StandardCharsets.UTF_8);
     out.writeInt(bytes.length);
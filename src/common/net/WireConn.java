@@ -0,0 +1,530 @@
+package common.net;
+
+import com.google.gson.JsonObject;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Conexión Wire (mismo formato que Wire.send/recv: int32 big-endian con la longitud + JSON UTF-8)
+// con buffers reutilizables del BufferPool. El JSON se lee y se escribe directamente sobre los
+// buffers (JsonBytes), sin String ni byte[] por frame, y cada send() es una sola escritura al socket.
+//
+// Framing:
+//  LENGTH -> int32 + JSON (el de siempre)
+//  STX    -> STX | JSON | ETX | LRC (formato Frame): un frame dañado se descarta y se sigue en el
+//            siguiente STX en vez de cerrar la conexión (enlaces móviles inestables)
+//  AUTO   -> lado servidor: se decide con el primer byte (0x02 = STX; un int32 de longitud <= 10 MB
+//            siempre empieza por 0x00) y se responde con el mismo formato
+//
+// Escritura por lotes (opcional, batching(...)): los send() se acumulan en wbuf y salen juntos en una
+// sola escritura al llegar a maxBytes o al cumplirse la ventana. La ventana la cuenta un hilo
+// "wire-flush" compartido por todas las conexiones, que solo avisa: la escritura la hace un hilo virtual
+// propio de la conexión, así un socket lento no para los flush de las demás. sendNow()/flush() vacían
+// en el acto lo pendiente (AUTH, respuestas que el otro extremo espera). Sin batching, cada send() es
+// una escritura, como siempre.
+//
+// writeLock es un ReentrantLock (no synchronized): un hilo virtual que escribe o espera con él tomado
+// no bloquea su hilo portador.
+//
+// recv() solo desde un hilo (el dueño de la conexión); send() es thread-safe.
+// Un SocketTimeoutException a mitad de frame no pierde nada: lo leído se queda en el buffer.
+public final class WireConn implements Closeable {
+  public enum Framing { LENGTH, STX, AUTO;
+    public static Framing parse(String s) {
+      try { return valueOf(s.trim().toUpperCase(java.util.Locale.ROOT)); }
+      catch (Exception e) { return LENGTH; }
+    }
+  }
+
+  static final int MAX_FRAME = 10 * 1024 * 1024;
+  private static final int DEFAULT_BUF = 8 * 1024;
+  private static final int IN_BUF = 4 * 1024;   // HB/REG_CP caben de sobra; crece si llega algo mayor
+
+  // Un solo hilo para las ventanas de flush de todas las conexiones (creado al primer uso); no escribe nunca
+  private static final class Flusher {
+    static final ScheduledExecutorService EXEC = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "wire-flush");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  // Totales del proceso (todas las conexiones), para métricas
+  private static final LongAdder G_WRITES = new LongAdder(), G_BYTES = new LongAdder(), G_FRAMES = new LongAdder();
+  private static final Object G_RATE_LOCK = new Object();
+  private static long gLastNs = System.nanoTime(), gLastWrites;
+
+  private final Socket socket;
+  private final InputStream in;
+  private final OutputStream out;
+  private final BufferPool pool;
+
+  private ByteBuffer rbuf;   // modo lectura: [position, limit) = recibido y sin procesar
+  // Sin batching solo se tiene mientras se escribe (vuelve al pool tras cada write): con miles de
+  // conexiones casi siempre ociosas, la memoria fija por conexión es solo rbuf
+  private ByteBuffer wbuf;
+  private boolean closed;   // bajo writeLock
+  private final MsgCodec rcodec = new MsgCodec();   // solo el hilo lector
+  private final MsgCodec wcodec = new MsgCodec();   // bajo writeLock
+  private final JsonBytes rjson = rcodec.json();
+  private final JsonBytes wjson = wcodec.json();
+  private final JsonBytes.Grow grower = this::growOut;
+  private int fFrom, fTo;   // payload del último frame leído (en rbuf)
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private volatile Framing framing;
+  private FrameDecoder stx;          // solo en modo STX
+  private long badFrames;
+
+  // Batching (bajo writeLock). batchBytes == 0 => desactivado
+  private volatile int batchBytes;
+  private long batchMs;
+  private int wcap = DEFAULT_BUF;    // tamaño al que vuelve wbuf tras un frame grande
+  private boolean flushScheduled;
+  private Thread flusher;             // hilo virtual de la conexión para los flush por tiempo
+  private volatile boolean flushDue, flusherStop;
+  private IOException flushError;    // fallo de un flush por tiempo: lo recibe el siguiente send()
+
+  // Métricas
+  private long framesIn, framesOut, bytesIn, bytesOut;
+  private long writes, flushBySize, flushByTimer, flushForced;
+  private long lastStatsNs = System.nanoTime(), lastStatsWrites;
+
+  public WireConn(Socket socket) throws IOException { this(socket, Framing.LENGTH, BufferPool.SHARED); }
+
+  public WireConn(Socket socket, Framing framing) throws IOException { this(socket, framing, BufferPool.SHARED); }
+
+  public WireConn(Socket socket, Framing framing, BufferPool pool) throws IOException {
+    this.socket = socket;
+    this.framing = framing;
+    if (framing == Framing.STX) this.stx = new FrameDecoder(MAX_FRAME);
+    this.in = socket.getInputStream();
+    this.out = socket.getOutputStream();
+    this.pool = pool;
+    this.rbuf = pool.acquire(IN_BUF);
+    this.rbuf.limit(0);
+  }
+
+  public Socket socket() { return socket; }
+
+  // Activa la escritura por lotes: se escribe al acumular maxBytes o, como tarde, windowMs después del
+  // primer mensaje pendiente. maxBytes <= 0 la desactiva (vaciando lo pendiente).
+  public WireConn batching(int maxBytes, long windowMs) throws IOException {
+    writeLock.lock();
+    try {
+      if (closed) throw new IOException("Conexión cerrada");
+      if (maxBytes <= 0) {
+        batchBytes = 0;
+        wcap = DEFAULT_BUF;
+        flushLocked();
+        return this;
+      }
+      batchBytes = Math.min(maxBytes, MAX_FRAME);
+      batchMs = Math.max(1L, windowMs);
+      if (flusher == null) {
+        flusher = Thread.ofVirtual().name("wire-flush-" + socket.getRemoteSocketAddress()).start(this::flushLoop);
+      }
+      if (wbuf == null) {
+        wbuf = pool.acquire(batchBytes + DEFAULT_BUF);
+      } else if (wbuf.capacity() < batchBytes + DEFAULT_BUF) {
+        ByteBuffer nb = pool.acquire(batchBytes + DEFAULT_BUF);
+        wbuf.flip();
+        nb.put(wbuf);
+        pool.release(wbuf);
+        wbuf = nb;
+      }
+      wcap = wbuf.capacity();
+    } finally {
+      writeLock.unlock();
+    }
+    return this;
+  }
+
+  public boolean batched() { return batchBytes > 0; }
+
+  // Formato en uso (en AUTO, el detectado tras el primer byte)
+  public Framing framing() { return framing; }
+
+  public JsonObject recv() throws IOException {
+    for (;;) {
+      nextFrame();
+      try {
+        return rjson.parse(rbuf, fFrom, fTo).getAsJsonObject();
+      } catch (RuntimeException bad) {
+        if (framing != Framing.STX) throw bad;
+        badFrames++;   // LRC correcto pero JSON inválido: se descarta el frame, la conexión sigue
+      } finally {
+        shrinkIn();
+      }
+    }
+  }
+
+  // Como recv(), con los codecs por tipo: HB/REG_CP/TEL llegan como campos (sin árbol ni boxing),
+  // el resto en into.json. into se reutiliza: su contenido solo vale hasta la siguiente llamada.
+  public WireMsg recv(WireMsg into) throws IOException {
+    for (;;) {
+      nextFrame();
+      try {
+        return rcodec.read(rbuf, fFrom, fTo, into);
+      } catch (RuntimeException bad) {
+        if (framing != Framing.STX) throw bad;
+        badFrames++;
+      } finally {
+        shrinkIn();
+      }
+    }
+  }
+
+  // Deja en [fFrom, fTo) el payload del siguiente frame
+  private void nextFrame() throws IOException {
+    if (framing == Framing.AUTO) detect();
+    if (framing == Framing.STX) {
+      while (!stx.next(rbuf)) fill();
+      fFrom = stx.payloadStart();
+      fTo = stx.payloadEnd();
+      framesIn++;
+      bytesIn += fTo - fFrom + 3;
+      return;
+    }
+    ensure(4);
+    int len = rbuf.getInt(rbuf.position());
+    if (len < 0 || len > MAX_FRAME) throw new IOException("Invalid frame size " + len);
+    ensure(4 + len);
+    fFrom = rbuf.position() + 4;
+    fTo = fFrom + len;
+    rbuf.position(fTo);
+    framesIn++;
+    bytesIn += 4 + len;
+  }
+
+  // Tras un frame grande volvemos al buffer normal
+  private void shrinkIn() {
+    if (rbuf.capacity() > IN_BUF && !rbuf.hasRemaining()) {
+      pool.release(rbuf);
+      rbuf = pool.acquire(IN_BUF);
+      rbuf.limit(0);
+    }
+  }
+
+  private void detect() throws IOException {
+    ensure(1);
+    framing = rbuf.get(rbuf.position()) == Frame.STX ? Framing.STX : Framing.LENGTH;
+    if (framing == Framing.STX) stx = new FrameDecoder(MAX_FRAME);
+  }
+
+  // Lee más del socket para un frame STX en curso: compacta (el decoder guarda su estado relativo a
+  // position) y si el frame ya ocupa todo el buffer, lo agranda
+  private void fill() throws IOException {
+    if (rbuf.position() > 0) {
+      rbuf.compact();
+      rbuf.flip();
+    } else if (rbuf.limit() == rbuf.capacity()) {
+      if (rbuf.capacity() >= MAX_FRAME + 3) {
+        // No debería pasar (el decoder resincroniza antes): tiramos lo acumulado
+        rbuf.position(rbuf.limit());
+        return;
+      }
+      ByteBuffer nb = pool.acquire(rbuf.capacity() * 2);
+      nb.put(rbuf);
+      nb.flip();
+      pool.release(rbuf);
+      rbuf = nb;
+    }
+    int lim = rbuf.limit();
+    int r = in.read(rbuf.array(), rbuf.arrayOffset() + lim, rbuf.capacity() - lim);
+    if (r < 0) throw new EOFException("Conexión cerrada por el otro extremo");
+    rbuf.limit(lim + r);
+  }
+
+  // Garantiza n bytes sin procesar en rbuf, leyendo del socket lo que haga falta
+  private void ensure(int n) throws IOException {
+    while (rbuf.remaining() < n) {
+      if (rbuf.capacity() < n) {
+        ByteBuffer nb = pool.acquire(n);
+        nb.put(rbuf);
+        nb.flip();
+        pool.release(rbuf);
+        rbuf = nb;
+      } else if (rbuf.capacity() - rbuf.limit() < n - rbuf.remaining()) {
+        rbuf.compact();
+        rbuf.flip();
+      }
+      int lim = rbuf.limit();
+      int r = in.read(rbuf.array(), rbuf.arrayOffset() + lim, rbuf.capacity() - lim);
+      if (r < 0) throw new EOFException("Conexión cerrada por el otro extremo");
+      rbuf.limit(lim + r);
+    }
+  }
+
+  public void send(JsonObject obj) throws IOException {
+    writeLock.lock();
+    try {
+      int start = beginFrame();
+      wbuf = wjson.write(obj, wbuf, grower);
+      endFrame(start, false);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // Como send(), pero sale ya (junto con lo que hubiera pendiente)
+  public void sendNow(JsonObject obj) throws IOException {
+    writeLock.lock();
+    try {
+      int start = beginFrame();
+      wbuf = wjson.write(obj, wbuf, grower);
+      endFrame(start, true);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public void flush() throws IOException {
+    writeLock.lock();
+    try {
+      if (wbuf == null) return;
+      if (wbuf.position() > 0) flushForced++;
+      flushLocked();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // Mensajes fijos sin Wire.obj ni árbol (mismo JSON que el camino genérico)
+  public void sendHb(long ts, String cp, boolean ok) throws IOException {
+    writeLock.lock();
+    try {
+      int start = beginFrame();
+      wbuf = wcodec.hb(wbuf, grower, ts, cp, ok);
+      endFrame(start, false);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public void sendRegCp(long ts, String cp, String loc, double price) throws IOException {
+    writeLock.lock();
+    try {
+      int start = beginFrame();
+      wbuf = wcodec.regCp(wbuf, grower, ts, cp, loc, price);
+      endFrame(start, false);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // HB de los n primeros CP de los arrays en un solo frame (todos autenticados antes con AUTH_CP en esta conexión)
+  public void sendHbBatch(long ts, String[] cps, boolean[] oks, long[] tss, int n) throws IOException {
+    writeLock.lock();
+    try {
+      int start = beginFrame();
+      wbuf = wcodec.hbBatch(wbuf, grower, ts, cps, oks, tss, n);
+      endFrame(start, false);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // Bajo writeLock. El frame se añade tras lo pendiente (si hay batching). Devuelve dónde empieza el payload.
+  private int beginFrame() throws IOException {
+    if (closed) throw new IOException("Conexión cerrada");
+    if (flushError != null) {
+      IOException e = flushError;
+      flushError = null;
+      throw e;
+    }
+    if (wbuf == null) wbuf = pool.acquire(wcap);
+    if (wbuf.remaining() < 5) wbuf = growOut(wbuf, 5);
+    if (framing == Framing.STX) return FrameEncoder.begin(wbuf);
+    // LENGTH (o AUTO sin haber recibido aún nada: el servidor nunca habla primero)
+    wbuf.position(wbuf.position() + 4);
+    return wbuf.position();
+  }
+
+  private void endFrame(int start, boolean now) throws IOException {
+    int len = wbuf.position() - start;
+    if (len > MAX_FRAME) {
+      // Fuera el frame a medias; lo que ya estaba pendiente sigue en cola
+      wbuf.position(framing == Framing.STX ? start - 1 : start - 4);
+      if (wbuf.position() == 0) flushLocked();   // solo devuelve el buffer
+      throw new IOException("Frame demasiado grande " + len);
+    }
+    if (framing == Framing.STX) {
+      if (wbuf.remaining() < 2) wbuf = growOut(wbuf, 2);
+      FrameEncoder.seal(wbuf, start);
+    } else {
+      wbuf.putInt(start - 4, len);
+    }
+    framesOut++;
+    G_FRAMES.increment();
+
+    if (batchBytes == 0 || now) {
+      if (now && batchBytes > 0) flushForced++;
+      flushLocked();
+    } else if (wbuf.position() >= batchBytes) {
+      flushBySize++;
+      flushLocked();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      Flusher.EXEC.schedule(this::signalFlush, batchMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // Una sola escritura al socket con todo lo pendiente
+  private void flushLocked() throws IOException {
+    if (wbuf == null) return;
+    int n = wbuf.position();
+    wbuf.clear();   // pase lo que pase, lo pendiente no se reintenta (la conexión queda rota)
+    try {
+      if (n == 0) return;
+      out.write(wbuf.array(), wbuf.arrayOffset(), n);
+      writes++;
+      bytesOut += n;
+      G_WRITES.increment();
+      G_BYTES.add(n);
+    } finally {
+      if (batchBytes == 0 || wbuf.capacity() > wcap) {
+        pool.release(wbuf);
+        wbuf = batchBytes == 0 ? null : pool.acquire(wcap);
+      }
+    }
+  }
+
+  // En el hilo "wire-flush": solo despierta al flusher de la conexión
+  private void signalFlush() {
+    flushDue = true;
+    LockSupport.unpark(flusher);
+  }
+
+  private void flushLoop() {
+    while (!flusherStop) {
+      if (!flushDue) {
+        LockSupport.park(this);
+        continue;
+      }
+      flushDue = false;
+      timerFlush();
+    }
+  }
+
+  private void timerFlush() {
+    writeLock.lock();
+    try {
+      flushScheduled = false;
+      if (wbuf == null || wbuf.position() == 0) return;
+      flushByTimer++;
+      try {
+        flushLocked();
+      } catch (IOException e) {
+        flushError = e;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private ByteBuffer growOut(ByteBuffer full, int extra) {
+    ByteBuffer nb = pool.acquire(Math.max(full.capacity() * 2, full.position() + extra));
+    full.flip();
+    nb.put(full);
+    pool.release(full);
+    return nb;
+  }
+
+  public JsonObject stats() {
+    JsonObject o = new JsonObject();
+    writeLock.lock();
+    try {
+      long now = System.nanoTime();
+      o.addProperty("framesOut", framesOut);
+      o.addProperty("bytesOut", bytesOut);
+      o.addProperty("writes", writes);
+      // Ritmo desde la última llamada a stats()
+      o.addProperty("writesPerSec", rate(writes - lastStatsWrites, now - lastStatsNs));
+      o.addProperty("bytesPerWrite", writes == 0 ? 0 : bytesOut / writes);
+      o.addProperty("framesPerWrite", writes == 0 ? 0.0 : (double) framesOut / writes);
+      lastStatsNs = now;
+      lastStatsWrites = writes;
+      if (batchBytes > 0) {
+        JsonObject b = new JsonObject();
+        b.addProperty("maxBytes", batchBytes);
+        b.addProperty("windowMs", batchMs);
+        b.addProperty("bySize", flushBySize);
+        b.addProperty("byTimer", flushByTimer);
+        b.addProperty("forced", flushForced);
+        b.addProperty("pendingBytes", wbuf == null ? 0 : wbuf.position());
+        o.add("batch", b);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+    o.addProperty("framesIn", framesIn);
+    o.addProperty("bytesIn", bytesIn);
+    o.addProperty("framing", framing.name());
+    if (stx != null) {
+      o.add("stx", stx.stats());
+      o.addProperty("badFrames", badFrames);
+    }
+    return o;
+  }
+
+  // Totales de todas las conexiones del proceso (writesPerSec: desde la última llamada)
+  public static JsonObject totals() {
+    JsonObject o = new JsonObject();
+    long w = G_WRITES.sum(), b = G_BYTES.sum(), f = G_FRAMES.sum();
+    o.addProperty("writes", w);
+    o.addProperty("frames", f);
+    o.addProperty("bytes", b);
+    o.addProperty("bytesPerWrite", w == 0 ? 0 : b / w);
+    o.addProperty("framesPerWrite", w == 0 ? 0.0 : (double) f / w);
+    synchronized (G_RATE_LOCK) {
+      long now = System.nanoTime();
+      o.addProperty("writesPerSec", rate(w - gLastWrites, now - gLastNs));
+      gLastNs = now;
+      gLastWrites = w;
+    }
+    return o;
+  }
+
+  private static double rate(long n, long nanos) {
+    return nanos <= 0 ? 0.0 : Math.round(n * 1e10 / nanos) / 10.0;
+  }
+
+  // Se puede llamar desde otro hilo. rbuf no vuelve al pool: el hilo lector puede seguir dentro de
+  // recv() hasta que el socket cerrado le haga saltar; lo recoge el GC.
+  // Con batching, lo pendiente se intenta enviar antes de cerrar.
+  @Override
+  public void close() throws IOException {
+    if (batchBytes > 0) {
+      writeLock.lock();
+      try {
+        try { if (!closed && !socket.isClosed()) flushLocked(); } catch (IOException ignore) {}
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    try {
+      socket.close();
+    } finally {
+      writeLock.lock();
+      try {
+        closed = true;
+        if (wbuf != null) { pool.release(wbuf); wbuf = null; }
+        flusherStop = true;
+        if (flusher != null) LockSupport.unpark(flusher);
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package common.net;
+
+import com.google.gson.JsonObject;
+
+// Mensaje recibido, reutilizable entre frames (una instancia por conexión/hilo).
+// Para los tipos con codec propio (HB, REG_CP, TEL) los campos se rellenan directamente desde los
+// bytes, sin JsonObject ni boxing, y json queda a null. Para el resto (AUTH_CP, ...) o si un mensaje
+// trae algo inesperado, json lleva el árbol completo, como Wire.recv().
+public final class WireMsg {
+  public String type;
+  public long ts;
+  public String cp;
+  public boolean ok;
+  public String loc;
+  public double price;
+  public String session;
+  public double power, kwh, eur;
+  public String src;
+
+  public JsonObject json;   // != null => camino genérico
+
+  int seen;   // bits de campos presentes (MsgCodec)
+
+  void reset() {
+    type = null; ts = 0L; cp = null; ok = false; loc = null; price = 0.0;
+    session = null; power = 0.0; kwh = 0.0; eur = 0.0; src = null;
+    json = null; seen = 0;
+  }
+
+  public boolean typed() { return json == null && type != null; }
+
+  // Vista JSON (logs, compatibilidad). En tipos con codec se construye al vuelo.
+  public JsonObject toJson() {
+    if (json != null) return json;
+    JsonObject o = new JsonObject();
+    if (type != null) o.addProperty("type", type);
+    if ((seen & MsgCodec.F_TS) != 0) o.addProperty("ts", ts);
+    if (cp != null) o.addProperty("cp", cp);
+    if ((seen & MsgCodec.F_OK) != 0) o.addProperty("ok", ok);
+    if (loc != null) o.addProperty("loc", loc);
+    if ((seen & MsgCodec.F_PRICE) != 0) o.addProperty("price", price);
+    if (session != null) o.addProperty("session", session);
+    if ((seen & MsgCodec.F_POWER) != 0) o.addProperty("power", power);
+    if ((seen & MsgCodec.F_KWH) != 0) o.addProperty("kwh", kwh);
+    if ((seen & MsgCodec.F_EUR) != 0) o.addProperty("eur", eur);
+    if (src != null) o.addProperty("src", src);
+    return o;
+  }
+
+  @Override public String toString() { return toJson().toString(); }
+}
@@ -1,8 +1,11 @@
 package cp_engine;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import common.bus.EventBus;
 import common.bus.KafkaBus;
+import common.bus.SubscribeOptions;
+import common.net.MsgCodec;
 
 import java.io.*;
 import java.net.ServerSocket;
@@ -69,6 +72,9 @@ public class CPEngine {
         System.out.println("[ENGINE] cpId=" + cpId + " Clave simétrica leída de " + keyFile);
 
         EventBus bus = KafkaBus.from(cfg);
+        // Modo enrutado: leemos solo la partición de nuestro CP y el resto se descarta por clave
+        boolean cmdRouted = Boolean.parseBoolean(cfg.getProperty("engine.cmd.routed","true"));
+        SubscribeOptions cmdOpts = cmdRouted ? SubscribeOptions.INLINE.routedTo(cpId) : SubscribeOptions.INLINE;
 
         cpCfgId = cpId;
 
@@ -112,7 +118,7 @@ public class CPEngine {
             } catch (Exception e) {
                 System.err.println("[ENG] onCmd ERROR: " + e.getMessage());
             }
-        });
+        }, cmdOpts);
 
         // El hilo principal queda vivo
         Thread.currentThread().join();
@@ -132,7 +138,7 @@ public class CPEngine {
                 // ACK temprano de espera (ahora cifrado hacia CENTRAL)
                 JsonObject waiting = obj("type","WAITING_PLUG","ts",System.currentTimeMillis(),
                                          "session",thisSession,"cp",cp,"src","ENGINE");
-                bus.publish(T_SESSIONS, thisSession, encryptForCentral(waiting));
+                bus.publishAsync(T_SESSIONS, thisSession, encryptForCentral(waiting));
 
                 System.out.println("[ENG] Esperando PLUG...");
                 while (!enchufado && thisSession.equals(sesionActiva)) {
@@ -151,12 +157,13 @@ public class CPEngine {
                 // (Opcional) CHARGING_STARTED (también cifrado)
                 JsonObject started = obj("type","CHARGING_STARTED","ts",System.currentTimeMillis(),
                                          "session",thisSession,"cp",cp,"src","ENGINE");
-                bus.publish(T_SESSIONS, thisSession, encryptForCentral(started));
+                bus.publishAsync(T_SESSIONS, thisSession, encryptForCentral(started));
 
                 enMarcha = true;
 
                 int seg = 0;
                 long t0 = System.currentTimeMillis();
+                MsgCodec telCodec = new MsgCodec();   // TEL directo a bytes, sin árbol JSON
                 while (enMarcha && enchufado && thisSession.equals(sesionActiva)) {
                     long t = System.currentTimeMillis();
                     if (t - t0 < 1000) { Thread.sleep(10); continue; }
@@ -165,13 +172,14 @@ public class CPEngine {
                     kWh += potenciaKW / 3600.0;
                     eur  = kWh * precio;
 
-                    JsonObject tel = obj("type","TEL","ts",t,"session",thisSession,"cp",cp,
-                                         "power",potenciaKW,"kwh",kWh,"eur",eur,"src","ENGINE");
-                    bus.publish(T_TELEMETRY, thisSession, encryptForCentral(tel));
+                    byte[] tel = telCodec.tel(t, thisSession, cp, potenciaKW, kWh, eur, "ENGINE");
+                    bus.publishAsync(T_TELEMETRY, thisSession, encryptForCentral(tel));
 
                     if (duracionDemoSec > 0 && ++seg >= duracionDemoSec) enMarcha = false;
                 }
 
+                // SESSION_END lleva la facturación: publish() síncrono. Con kafka.outbox.enabled vuelve en cuanto
+                // está en el outbox local (se reenvía aunque el broker esté caído o reiniciemos); sin él, espera al broker
                 JsonObject end = obj("type","SESSION_END","ts",System.currentTimeMillis(),
                                      "session",thisSession,"cp",cp,"kwh",kWh,"eur",eur,
                                      "reason","OK","src","ENGINE");
@@ -337,6 +345,10 @@ public class CPEngine {
     // ---------- AES/GCM + envoltorios ENC ----------
 
     private static String aesEncrypt(String plainText, String keyB64) throws Exception {
+        return aesEncrypt(plainText.getBytes(StandardCharsets.UTF_8), keyB64);
+    }
+
+    private static String aesEncrypt(byte[] plain, String keyB64) throws Exception {
         byte[] keyBytes = Base64.getDecoder().decode(keyB64);
         SecretKeySpec key = new SecretKeySpec(keyBytes, "AES");
 
@@ -347,7 +359,7 @@ public class CPEngine {
         Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
         GCMParameterSpec spec = new GCMParameterSpec(128, iv);
         cipher.init(Cipher.ENCRYPT_MODE, key, spec);
-        byte[] cipherText = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+        byte[] cipherText = cipher.doFinal(plain);
 
         // empaquetamos IV + cipherText y lo codificamos en Base64
         byte[] out = new byte[iv.length + cipherText.length];
@@ -396,6 +408,26 @@ public class CPEngine {
         }
     }
 
+    // Variante para payloads ya serializados (TEL vía MsgCodec)
+    private static JsonObject encryptForCentral(byte[] plain) {
+        try {
+            if (cpKeyB64 == null || cpKeyB64.isBlank()) {
+                System.err.println("[ENGINE][ENC] No hay clave, enviando sin cifrar");
+                return JsonParser.parseString(new String(plain, StandardCharsets.UTF_8)).getAsJsonObject();
+            }
+            return obj(
+                    "type","ENC",
+                    "src","CP",
+                    "ts",System.currentTimeMillis(),
+                    "cp",cpId,
+                    "payload",aesEncrypt(plain, cpKeyB64)
+            );
+        } catch (Exception e) {
+            System.err.println("[ENGINE][ENC] Error cifrando hacia CENTRAL: " + e.getMessage());
+            return JsonParser.parseString(new String(plain, StandardCharsets.UTF_8)).getAsJsonObject();
+        }
+    }
+
     private static JsonObject decryptFromCentral(JsonObject m) {
         try {
             if (cpKeyB64 == null || cpKeyB64.isBlank()) {
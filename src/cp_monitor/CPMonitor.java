@@ -19,6 +19,7 @@ import java.nio.file.Path;
 import java.util.Properties;
 
 import static common.net.Wire.*;
+import common.net.WireConn;
 
 public class CPMonitor {
 
@@ -50,6 +51,14 @@ public class CPMonitor {
 
         final String engineHost  = p.getProperty("monitor.engineHost", "127.0.0.1");
         final int enginePort     = getInt(p, "monitor.enginePort", 6100);
+        // length (int32 + JSON, por defecto) | stx (STX/ETX/LRC: resincroniza si la línea mete basura)
+        final WireConn.Framing framing = WireConn.Framing.parse(p.getProperty("monitor.framing", "length"));
+        // Escritura por lotes hacia CENTRAL (0 = desactivada): REG_CP + HB salen juntos, etc.
+        final int  batchBytes = getInt(p, "monitor.wire.batchBytes", 0);
+        final long batchMs    = getInt(p, "monitor.wire.batchMs", 5);
+        // Reintentos contra CENTRAL: backoff exponencial con jitter (no todos los CP a la vez tras un corte)
+        final long reconBaseMs = getInt(p, "monitor.reconnect.baseMs", 1000);
+        final long reconMaxMs  = getInt(p, "monitor.reconnect.maxMs", 30000);
 
         final String registryUrl =
                 p.getProperty("registry.url", "http://127.0.0.1:8081/api/registry/register");
@@ -72,66 +81,102 @@ public class CPMonitor {
         }
 
         // --- Bucle de siempre hablando con CENTRAL (ahora con AUTH_CP al principio) ---
+        int intentos = 0;
         for (;;) {
             try (Socket sC = new Socket(centralHost, centralPort);
-                DataInputStream  inC  = new DataInputStream(sC.getInputStream());
-                DataOutputStream outC = new DataOutputStream(sC.getOutputStream())) {
+                WireConn conn = new WireConn(sC, framing)) {
+
+                if (batchBytes > 0) conn.batching(batchBytes, batchMs);
 
                 // 1) Durante AUTH_CP, damos más margen (2 segundos)
                 sC.setSoTimeout(2000);
 
-                System.out.println("[MON] Conectado a CENTRAL " + centralHost + ":" + centralPort);
+                System.out.println("[MON] Conectado a CENTRAL " + centralHost + ":" + centralPort + " framing=" + framing);
 
-                // IMPORTANTE: aquí debes tener definida autenticarCpEnCentral(inC, outC, cpId, cpSecret)
-                autenticarCpEnCentral(inC, outC, cpId, cpSecret);
+                // IMPORTANTE: aquí debes tener definida autenticarCpEnCentral(conn, cpId, cpSecret)
+                if (autenticarCpEnCentral(conn, cpId, cpSecret)) intentos = 0;
 
                 // 2) Para el resto (drenar ACKs), volvemos a 200 ms
                 sC.setSoTimeout(200);
 
                 // 3) REG_CP + HBs como tenías
-                send(outC, obj("type","REG_CP","ts",System.currentTimeMillis(),
-                            "cp",cpId,"loc",ubic,"price",precio));
-                drainAcks(inC, 2, "REG_CP");
+                conn.sendRegCp(System.currentTimeMillis(), cpId, ubic, precio);
+                drainAcks(conn, 2, "REG_CP");
 
                 long lastHb = 0L;
                 while (true) {
                     long now = System.currentTimeMillis();
                     if (now - lastHb >= 1000) {
                         boolean okEngine = pingEngine(engineHost, enginePort);
-                        send(outC, obj("type","HB","ts",now,"cp",cpId,"ok",okEngine));
+                        conn.sendHb(now, cpId, okEngine);   // codec propio: sin varargs ni árbol JSON
                         lastHb = now;
-                        drainAcks(inC, 2, "HB");
+                        drainAcks(conn, 2, "HB");
                     }
                     Thread.sleep(50);
                 }
 
+            } catch (RetryLater r) {
+                // CENTRAL nos da hueco dentro de retryAfterMs; +0..50% para no volver todos a la vez
+                long espera = r.ms + java.util.concurrent.ThreadLocalRandom.current().nextLong(r.ms / 2 + 1);
+                System.out.println("[MON] CENTRAL ocupada (" + r.reason + "): reintento en " + espera + " ms");
+                try { Thread.sleep(espera); } catch (InterruptedException ignore) {}
             } catch (Exception e) {
-                System.out.println("[MON] Desconectado de CENTRAL: " + e.getMessage() + " (reintento 1s)");
-                try { Thread.sleep(1000); } catch (InterruptedException ignore) {}
+                // Mitad fija + mitad aleatoria de base*2^intentos (tope reconMaxMs)
+                long d = Math.min(reconMaxMs, reconBaseMs << Math.min(intentos++, 20));
+                long espera = d / 2 + java.util.concurrent.ThreadLocalRandom.current().nextLong(d / 2 + 1);
+                System.out.println("[MON] Desconectado de CENTRAL: " + e.getMessage() + " (reintento " + espera + " ms)");
+                try { Thread.sleep(espera); } catch (InterruptedException ignore) {}
             }
         }
     }
 
+    // RETRY de CENTRAL (admisión): reintentar dentro de ms
+    static final class RetryLater extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final long ms;
+        final String reason;
+        RetryLater(long ms, String reason) {
+            super("RETRY " + reason + " " + ms + " ms");
+            this.ms = ms;
+            this.reason = reason;
+        }
+    }
+
     // ------------------- AUTH_CP hacia CENTRAL -------------------
-    private static void autenticarCpEnCentral(DataInputStream inC,
-                                            DataOutputStream outC,
+    // true con AUTH_OK. Si CENTRAL responde RETRY, RetryLater (el bucle cierra y espera).
+    private static boolean autenticarCpEnCentral(WireConn conn,
                                             String cpId,
-                                            String cpSecret) {
+                                            String cpSecret) throws RetryLater {
         try {
             System.out.println("[MON] Autenticando CP en CENTRAL. cp=" + cpId);
 
-            send(outC, obj(
+            // sendNow: esperamos la respuesta, no puede quedarse en el lote
+            conn.sendNow(obj(
                     "type","AUTH_CP",
                     "ts",System.currentTimeMillis(),
                     "cp",cpId,
                     "secret",cpSecret   // <-- esto es lo que Central está esperando
             ));
 
-            // Respuesta opcional
-            drainAcks(inC, 1, "AUTH_CP");
+            // Respuesta: AUTH_OK / AUTH_ERR / RETRY
+            JsonObject resp = conn.recv();
+            System.out.println("[MON] <- AUTH_CP ACK: " + resp);
+            String type = resp.has("type") ? resp.get("type").getAsString() : "";
+            if ("RETRY".equals(type)) {
+                long ms = resp.has("retryAfterMs") ? resp.get("retryAfterMs").getAsLong() : 1000L;
+                String reason = resp.has("reason") ? resp.get("reason").getAsString() : "?";
+                throw new RetryLater(Math.max(1L, ms), reason);
+            }
+            return "AUTH_OK".equals(type);
 
+        } catch (RetryLater r) {
+            throw r;
+        } catch (SocketTimeoutException te) {
+            return false;   // sin respuesta: seguimos como siempre (si nos cierran, reconexión con backoff)
         } catch (Exception e) {
             System.out.println("[MON] Error autenticando CP en CENTRAL: " + e.getMessage());
+            return false;
         }
     }
     
@@ -243,10 +288,10 @@ public class CPMonitor {
      * Intenta leer y descartar hasta 'max' frames con timeout corto (SO_TIMEOUT del socket).
      * Evita que se acumulen los ACK de Central en el buffer TCP.
      */
-    private static void drainAcks(DataInputStream in, int max, String label) {
+    private static void drainAcks(WireConn conn, int max, String label) {
         for (int i = 0; i < max; i++) {
             try {
-                var ack = common.net.Wire.recv(in);
+                var ack = conn.recv();
                 // Si quieres verlos:
                 System.out.println("[MON] <- " + label + " ACK: " + ack);
             } catch (SocketTimeoutException te) {
@@ -0,0 +1,188 @@
+package cp_monitor;
+
+import com.google.gson.JsonObject;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static common.net.Wire.*;
+import common.net.WireConn;
+
+// Simulador de carga: N CPMonitor contra CENTRAL, cada uno con su conexión TCP (no lo usa ningún componente).
+//
+//   java -Xmx1g -cp out:lib/* cp_monitor.MonitorSim [host:puerto] [conexiones] [altasPorSeg] [hbMs] [segundos]
+//                                                   [primerCp] [origenes] [httpCentral]
+//
+//   host:puerto  CENTRAL (127.0.0.1:5000)          conexiones   monitores simulados (50000)
+//   altasPorSeg  ritmo de conexión (1000)          hbMs         periodo de HB de cada monitor (1000)
+//   segundos     duración con todos arriba (120)   primerCp     índice del primer id SIM-nnnnnn (0); para
+//                                                               repartir la carga entre varios procesos
+//   origenes     IPs locales separadas por comas para el bind (127.0.0.1,127.0.0.2,...): cada IP da
+//                ~28k puertos efímeros hacia un mismo host:puerto, 50k conexiones necesitan al menos 2
+//   httpCentral  URL del panel de CENTRAL (http://127.0.0.1:8080); si se da, cada informe incluye
+//                cpConnections y el heap de CENTRAL, en uso y tras el último GC (GET /api/wire)
+//
+// Cada monitor hace lo mismo que CPMonitor: AUTH_CP (respeta RETRY con su retryAfterMs), REG_CP y un HB
+// cada hbMs, con un hilo virtual por monitor. El secret es fijo ("sim"): CENTRAL sin BD acepta cualquiera;
+// con BD, los SIM-nnnnnn tienen que estar dados de alta en EV_CP_REGISTRY con ese secret.
+// Hacen falta descriptores para todos los sockets en los dos lados (ulimit -n > conexiones + margen).
+public final class MonitorSim {
+
+    private static final LongAdder conectados = new LongAdder(), autenticados = new LongAdder(),
+                                   retries = new LongAdder(), authErr = new LongAdder(),
+                                   errores = new LongAdder(), hbs = new LongAdder();
+    private static final AtomicLong primerError = new AtomicLong();
+    private static volatile boolean parar;
+
+    public static void main(String[] args) throws Exception {
+        String hp       = args.length > 0 ? args[0] : "127.0.0.1:5000";
+        int n           = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int rate        = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long hbMs       = args.length > 3 ? Long.parseLong(args[3]) : 1000L;
+        long segundos   = args.length > 4 ? Long.parseLong(args[4]) : 120L;
+        int primero     = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+        String[] origen = args.length > 6 && !args[6].isBlank() ? args[6].split(",") : new String[0];
+        String http     = args.length > 7 ? args[7] : null;
+
+        int c = hp.lastIndexOf(':');
+        InetSocketAddress central = new InetSocketAddress(hp.substring(0, c), Integer.parseInt(hp.substring(c + 1)));
+
+        System.out.println("[BENCH] MonitorSim central=" + hp + " conexiones=" + n + " altas/s=" + rate +
+                           " hbMs=" + hbMs + " segundos=" + segundos + " origenes=" + origen.length);
+
+        List<Thread> monitores = new ArrayList<>(n);
+        long t0 = System.nanoTime();
+        Thread informe = Thread.ofPlatform().daemon().start(() -> informar(t0, http));
+
+        // Rampa: altasPorSeg conexiones nuevas por segundo como mucho
+        for (int i = 0; i < n; i++) {
+            String id = String.format(Locale.ROOT, "SIM-%06d", primero + i);
+            String bind = origen.length == 0 ? null : origen[i % origen.length].trim();
+            monitores.add(Thread.ofVirtual().start(() -> monitor(central, bind, id, hbMs)));
+            long debe = (long) ((i + 1) * 1e9 / rate);
+            long va = System.nanoTime() - t0;
+            if (debe > va) Thread.sleep((debe - va) / 1_000_000L, (int) ((debe - va) % 1_000_000L));
+        }
+        System.out.printf(Locale.ROOT, "[BENCH] rampa terminada en %.1f s; %d s con todos arriba%n",
+                          (System.nanoTime() - t0) / 1e9, segundos);
+
+        Thread.sleep(segundos * 1000L);
+        parar = true;
+        for (Thread t : monitores) t.interrupt();
+        for (Thread t : monitores) t.join(5000);
+        informe.interrupt();
+        System.out.println("[BENCH] fin: " + resumen(t0, http));
+    }
+
+    // Un monitor: conecta, se autentica y manda HB hasta el final; si lo desconectan, vuelve a entrar
+    private static void monitor(InetSocketAddress central, String bind, String id, long hbMs) {
+        while (!parar) {
+            boolean dentro = false;
+            long esperar = 1000L;
+            Socket s = new Socket();
+            try (WireConn conn = conectar(s, central, bind)) {
+                conectados.increment();
+                dentro = true;
+                s.setSoTimeout(30_000);
+                conn.sendNow(obj("type","AUTH_CP","ts",System.currentTimeMillis(),"cp",id,"secret","sim"));
+                JsonObject r = conn.recv();
+                String type = r.has("type") ? r.get("type").getAsString() : "";
+                if ("RETRY".equals(type)) {
+                    retries.increment();
+                    long ms = r.has("retryAfterMs") ? r.get("retryAfterMs").getAsLong() : 1000L;
+                    esperar = ms + ThreadLocalRandom.current().nextLong(ms / 2 + 1);
+                } else if (!"AUTH_OK".equals(type)) {
+                    authErr.increment();
+                    esperar = 5000L;
+                } else {
+                    autenticados.increment();
+                    try {
+                        conn.sendRegCp(System.currentTimeMillis(), id, "Simulado", 0.30);
+                        conn.flush();
+                        // Desfase aleatorio para que los HB no salgan todos en el mismo milisegundo
+                        Thread.sleep(ThreadLocalRandom.current().nextLong(hbMs));
+                        while (!parar) {
+                            conn.sendHb(System.currentTimeMillis(), id, true);
+                            conn.flush();
+                            hbs.increment();
+                            Thread.sleep(hbMs);
+                        }
+                    } finally {
+                        autenticados.decrement();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                if (parar) return;
+                errores.increment();
+                if (primerError.getAndIncrement() == 0) System.out.println("[BENCH] primer error (" + id + "): " + e);
+            } finally {
+                if (dentro) conectados.decrement();
+            }
+            try { Thread.sleep(esperar); } catch (InterruptedException e) { return; }
+        }
+    }
+
+    private static WireConn conectar(Socket s, InetSocketAddress central, String bind) throws Exception {
+        try {
+            if (bind != null) s.bind(new InetSocketAddress(bind, 0));
+            s.connect(central, 10_000);
+            return new WireConn(s, WireConn.Framing.LENGTH);
+        } catch (Exception e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    private static void informar(long t0, String http) {
+        try {
+            while (true) {
+                Thread.sleep(5000);
+                System.out.println("[BENCH] " + resumen(t0, http));
+            }
+        } catch (InterruptedException ignore) {}
+    }
+
+    private static long hbPrev, tPrev;
+
+    private static synchronized String resumen(long t0, String http) {
+        long now = System.nanoTime(), h = hbs.sum();
+        double hbPorSeg = tPrev == 0 ? 0.0 : (h - hbPrev) * 1e9 / (now - tPrev);
+        hbPrev = h;
+        tPrev = now;
+        String s = String.format(Locale.ROOT, "t=%.0fs conectados=%d autenticados=%d hb/s=%.0f retry=%d authErr=%d errores=%d",
+                (now - t0) / 1e9, conectados.sum(), autenticados.sum(), hbPorSeg, retries.sum(), authErr.sum(), errores.sum());
+        if (http != null) s += " | central " + centralWire(http);
+        return s;
+    }
+
+    // cpConnections y heap de CENTRAL
+    private static String centralWire(String http) {
+        try {
+            HttpURLConnection c = (HttpURLConnection) URI.create(http + "/api/wire").toURL().openConnection();
+            c.setConnectTimeout(2000);
+            c.setReadTimeout(2000);
+            try (InputStream in = c.getInputStream()) {
+                JsonObject o = com.google.gson.JsonParser.parseString(
+                        new String(in.readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+                long heap = o.has("heapUsedBytes") ? o.get("heapUsedBytes").getAsLong() : -1;
+                long gc = o.has("heapAfterGcBytes") ? o.get("heapAfterGcBytes").getAsLong() : -1;
+                return "cpConnections=" + o.get("cpConnections") + " heapUsedMB=" + (heap < 0 ? "?" : heap >> 20) +
+                       " heapTrasGcMB=" + (gc < 0 ? "?" : gc >> 20);
+            }
+        } catch (Exception e) {
+            return "(sin /api/wire: " + e.getMessage() + ")";
+        }
+    }
+}
@@ -3,12 +3,14 @@ package driver;
 import com.google.gson.JsonObject;
 import common.bus.EventBus;
 import common.bus.KafkaBus;
+import common.bus.SubscribeOptions;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
 
 import static common.net.Wire.*; // obj(...) para construir JSON
 
@@ -25,20 +27,27 @@ public class EVDriver {
         final String filePath     = config.getProperty("driver.file","").trim();
         final int    authTimeoutMs= parseIntOr(config.getProperty("driver.authTimeoutMs","5000"), 5000);
 
-        final String T_CMD        = config.getProperty("kafka.topic.cmd","ev.cmd.v1");
-        final String T_SESSIONS   = config.getProperty("kafka.topic.sessions","ev.sessions.v1");
+        final String T_REQUESTS   = config.getProperty("kafka.topic.requests","ev.requests.v1");
+        final boolean porDriver   = Boolean.parseBoolean(config.getProperty("kafka.replies.perDriverTopic","true").trim());
+        final String T_SHARED     = config.getProperty("kafka.topic.replies","ev.driver.replies.v1");
+        final String T_REPLIES    = porDriver ? EventBus.topicFor(T_SHARED, driverID) : T_SHARED;
 
         EventBus bus = KafkaBus.from(config);
         System.out.println("[DRV][KAFKA] bootstrap=" + config.getProperty("kafka.bootstrap","(missing)") + " busImpl=" + bus.getClass().getSimpleName());
         Runtime.getRuntime().addShutdownHook(new Thread(() -> { try { bus.close(); } catch(Exception ignore){} }, "drv-shutdown"));
 
-        System.out.println("[DRV] Kafka driver=" + driverID + " topics: CMD=" + T_CMD + " SESS=" + T_SESSIONS);
+        System.out.println("[DRV] Kafka driver=" + driverID + " topics: REQ=" + T_REQUESTS + " REPLIES=" + T_REPLIES);
 
         // Cola de eventos entrantes
         final LinkedBlockingQueue<JsonObject> q = new LinkedBlockingQueue<>();
 
-        // Suscripción global a ev.sessions.v1: volcamos todo a la cola y filtramos en waitFor(...)
-        bus.subscribe(T_SESSIONS, msg -> {
+        // Respuestas de CENTRAL para este driver (AUTH, STOP_ACK, SESSION_END). Con topic propio solo llega
+        // lo nuestro; con el compartido leemos la partición de nuestra clave y lo de otros drivers se
+        // descarta sin parsear. waitFor(...) sigue filtrando por sesión/CP.
+        // El topic propio lo crea el driver (CENTRAL solo publica). Aun con topic propio leemos también la
+        // partición de nuestra clave del compartido: ahí van las respuestas a ids que CENTRAL no ha
+        // validado todavía (DRIVER_INVALIDO, STOP_ACK sin sesión).
+        Consumer<JsonObject> onReply = msg -> {
             try {
                 q.offer(msg);
                 // Si quieremos ver lo que llega
@@ -46,7 +55,10 @@ public class EVDriver {
             } catch (Exception e) {
                 System.err.println("[DRV] subscribe error: " + e.getMessage());
             }
-        });
+        };
+        bus.ensureTopic(T_REPLIES);
+        bus.subscribe(T_REPLIES, onReply, SubscribeOptions.INLINE.routedTo(driverID));
+        if (porDriver) bus.subscribe(T_SHARED, onReply, SubscribeOptions.INLINE.routedTo(driverID));
 
         // Entrada manual o por fichero
         List<String> cps = null;
@@ -67,7 +79,7 @@ public class EVDriver {
             for (String cp : cps) {
                 i++;
                 System.out.println("[DRV] ("+i+"/"+n+") solicitando "+cp+"…");
-                flujoSolicitud(bus, T_CMD, q, driverID, cp, authTimeoutMs);
+                flujoSolicitud(bus, T_REQUESTS, q, driverID, cp, authTimeoutMs);
                 Thread.sleep(4000);
             }
             System.out.println("[DRV] Fichero procesado. Fin.");
@@ -78,18 +90,18 @@ public class EVDriver {
                     System.out.print("CP-ID> ");
                     String cp = br.readLine();
                     if (cp==null || cp.isBlank()) break;
-                    flujoSolicitud(bus, T_CMD, q, driverID, cp.trim(), authTimeoutMs);
+                    flujoSolicitud(bus, T_REQUESTS, q, driverID, cp.trim(), authTimeoutMs);
                 }
             }
         }
     }
 
-    private static void flujoSolicitud(EventBus bus, String T_CMD, LinkedBlockingQueue<JsonObject> q,
+    private static void flujoSolicitud(EventBus bus, String T_REQUESTS, LinkedBlockingQueue<JsonObject> q,
                                        String driverID, String cp, int authTimeoutMs) throws Exception {
-        // 1) Publica REQ_START por Kafka
+        // 1) Publica REQ_START por Kafka (canal de peticiones hacia CENTRAL)
         JsonObject req = obj("type","CMD","cmd","REQ_START","ts",System.currentTimeMillis(),
                      "driver",driverID,"cp",cp,"src","DRIVER");
-        bus.publish(T_CMD, driverID, req);
+        bus.publish(T_REQUESTS, driverID, req);
         
         System.out.println("[DRV] CMD -> " + req);
 
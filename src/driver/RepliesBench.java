@@ -0,0 +1,127 @@
+package driver;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import common.bus.EventBus;
+import common.bus.KafkaBus;
+import common.bus.SubscribeOptions;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static common.net.Wire.*;
+
+// Banco de pruebas de las respuestas CENTRAL -> DRIVER (no lo usa ningún componente).
+//
+//   java -cp out:lib/* driver.RepliesBench [config] [drivers,...] [respuestasPorDriver]
+//
+// Para cada tamaño de flota levanta N drivers (cada uno con su bus, como procesos separados) y un
+// "central" que manda R respuestas a cada uno, primero por el topic compartido (clave = driver) y luego
+// con un topic por driver. Mide cuántos records LEE cada driver (entregados + descartados por clave de
+// otro driver) frente a los R que le sirven. Con el topic compartido lo leído crece con la flota;
+// con topic por driver se queda en R.
+//
+// Sin config (o con bus.impl=memory) corre en la propia JVM; con un config de Kafka mide contra el broker.
+public final class RepliesBench {
+
+    public static void main(String[] args) throws Exception {
+        Properties base = new Properties();
+        if (args.length > 0 && !args[0].isBlank() && !"memory".equals(args[0])) {
+            try (InputStream in = Files.newInputStream(Path.of(args[0]))) { base.load(in); }
+        } else {
+            base.setProperty("bus.impl", "memory");
+        }
+        String sizes = args.length > 1 ? args[1] : "10,100,500";
+        int replies  = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String topicBase = "bench.replies." + System.currentTimeMillis();
+
+        System.out.println("[BENCH] Respuestas a drivers: bus=" + base.getProperty("bus.impl","kafka")
+                + " flotas=" + sizes + " respuestas/driver=" + replies);
+        System.out.println("[BENCH] modo        drivers  útiles/driver  leídos/driver  leídos/útiles");
+        for (String sz : sizes.split(",")) {
+            int n = Integer.parseInt(sz.trim());
+            run(base, topicBase + ".n" + n, n, replies, false);
+            run(base, topicBase + ".n" + n, n, replies, true);
+        }
+    }
+
+    private static void run(Properties base, String topicBase, int drivers, int replies, boolean porDriver)
+            throws Exception {
+        List<EventBus> buses = new ArrayList<>();
+        List<String> topics = new ArrayList<>();
+        List<AtomicLong> handled = new ArrayList<>();
+        String shared = topicBase + ".shared";
+
+        for (int i = 0; i < drivers; i++) {
+            String id = String.format("BD-%05d", i);
+            Properties p = new Properties();
+            p.putAll(base);
+            p.setProperty("kafka.clientId", "bench-" + id);
+            p.setProperty("kafka.groupId", "bench-" + id);
+            p.setProperty("kafka.debug", "false");
+            p.setProperty("kafka.autoOffsetReset", "earliest");
+            EventBus bus = KafkaBus.from(p);
+            String topic = porDriver ? EventBus.topicFor(topicBase, id) : shared;
+            bus.ensureTopic(topic);
+            AtomicLong count = new AtomicLong();
+            bus.subscribe(topic, _ -> count.incrementAndGet(), SubscribeOptions.INLINE.routedTo(id));
+            buses.add(bus);
+            topics.add(topic);
+            handled.add(count);
+        }
+
+        Properties cp = new Properties();
+        cp.putAll(base);
+        cp.setProperty("kafka.clientId", "bench-central");
+        cp.setProperty("kafka.groupId", "bench-central");
+        cp.setProperty("kafka.debug", "false");
+        EventBus central = KafkaBus.from(cp);
+        if (!porDriver) central.ensureTopic(shared);
+
+        // Kafka: los consumers asignan su partición en segundo plano; con earliest no se pierde nada
+        for (int r = 0; r < replies; r++) {
+            for (int i = 0; i < drivers; i++) {
+                String id = String.format("BD-%05d", i);
+                central.publishAsync(topics.get(i), id,
+                        obj("type","AUTH","ts",System.currentTimeMillis(),"driver",id,"cp","CP-001","ok",true,"src","CENTRAL"));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 60_000L;
+        for (AtomicLong c : handled) {
+            while (c.get() < replies && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        }
+        Thread.sleep(200);   // que terminen de contarse los descartes
+
+        long read = 0, useful = 0;
+        for (int i = 0; i < drivers; i++) {
+            useful += handled.get(i).get();
+            read   += handled.get(i).get() + skipped(buses.get(i), topics.get(i), handled.get(i).get());
+        }
+        System.out.printf(java.util.Locale.ROOT, "[BENCH] %-11s %7d  %13.1f  %13.1f  %13.1f%n",
+                porDriver ? "porDriver" : "compartido", drivers, useful / (double) drivers,
+                read / (double) drivers, useful == 0 ? 0.0 : read / (double) useful);
+
+        for (EventBus b : buses) b.close();
+        central.close();
+    }
+
+    // Records de otros drivers que este driver ha leído y descartado
+    private static long skipped(EventBus bus, String topic, long handled) {
+        JsonObject t = bus.metrics().getAsJsonObject("topics").getAsJsonObject(topic);
+        if (t == null) return 0;
+        if (t.has("skipped")) return t.get("skipped").getAsLong();           // Kafka
+        // Memoria: hub común; cada suscriptor del topic cuenta todo lo que ha recorrido (todos lo mismo)
+        long recorridos = 0, subs = 0;
+        for (JsonElement s : t.getAsJsonArray("subscribers")) {
+            recorridos += s.getAsJsonObject().get("delivered").getAsLong();
+            subs++;
+        }
+        return subs == 0 ? 0 : Math.max(0, recorridos / subs - handled);
+    }
+}
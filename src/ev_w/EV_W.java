@@ -77,7 +77,7 @@ public class EV_W {
                                 "tempC",w.tempC,
                                 "alert",alert
                         );
-                        bus.publish(T_TELEMETRY, cpId, msg);
+                        bus.publishAsync(T_TELEMETRY, cpId, msg);
 
                         // pequeña pausa entre CPs para no abusar del API
                         Thread.sleep(1000);